@@ -26,8 +26,16 @@ package com.techshroom.mods.craftorio;
 
 import com.techshroom.mods.craftorio.block.ExtendedBlock;
 import com.techshroom.mods.craftorio.block.CraftorioBlocks;
-import com.techshroom.mods.craftorio.block.entity.TileEntityAutoRailBase;
 import com.techshroom.mods.craftorio.block.entity.TileEntityRailSignal;
+import com.techshroom.mods.craftorio.network.ChunkWatchers;
+import com.techshroom.mods.craftorio.network.CraftorioNetwork;
+import com.techshroom.mods.craftorio.rail.RailHashCheck;
+import com.techshroom.mods.craftorio.rail.RailStorage;
+import com.techshroom.mods.craftorio.rail.RailSyncQueue;
+import com.techshroom.mods.craftorio.rail.RailUpdateQueue;
+import com.techshroom.mods.craftorio.rail.SplitJobQueue;
+import com.techshroom.mods.craftorio.segment.ReservationResolver;
+import com.techshroom.mods.craftorio.segment.SegmentOccupancy;
 
 public class CraftorioProxy {
 
@@ -39,6 +47,7 @@ public class CraftorioProxy {
             for (ExtendedBlock block : ExtendedBlock.getRegisteredBlocks()) {
                 block.clientInit();
             }
+            RailHashCheck.register();
         }
 
         @Override
@@ -51,7 +60,14 @@ public class CraftorioProxy {
 
     public void onPreInit() {
         CraftorioBlocks.registerBlocks();
-        TileEntityAutoRailBase.addHooks();
+        CraftorioNetwork.registerMessages();
+        ChunkWatchers.addHooks();
+        RailStorage.addHooks();
+        RailUpdateQueue.addHooks();
+        RailSyncQueue.addHooks();
+        SplitJobQueue.addHooks();
+        ReservationResolver.addHooks();
+        SegmentOccupancy.addHooks();
         TileEntityRailSignal.addHooks();
     }
 
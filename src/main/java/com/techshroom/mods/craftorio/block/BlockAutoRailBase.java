@@ -29,31 +29,31 @@ import java.util.List;
 
 import javax.annotation.Nullable;
 
-import com.techshroom.mods.craftorio.CraftorioMod;
-import com.techshroom.mods.craftorio.block.entity.TESRRailSegmentDisplay;
-import com.techshroom.mods.craftorio.block.entity.TileEntityAutoRailBase;
+import com.techshroom.mods.craftorio.rail.Rail;
+import com.techshroom.mods.craftorio.rail.RailUpdateQueue;
+import com.techshroom.mods.craftorio.rail.RailSegmentOverlay;
+import com.techshroom.mods.craftorio.segment.SegmentOccupancy;
 
 import net.minecraft.block.Block;
-import net.minecraft.block.ITileEntityProvider;
 import net.minecraft.block.material.EnumPushReaction;
 import net.minecraft.block.material.Material;
 import net.minecraft.block.properties.IProperty;
 import net.minecraft.block.state.BlockStateContainer;
 import net.minecraft.block.state.IBlockState;
+import net.minecraft.entity.Entity;
 import net.minecraft.entity.item.EntityMinecart;
 import net.minecraft.util.BlockRenderLayer;
 import net.minecraft.util.EnumFacing;
 import net.minecraft.util.IStringSerializable;
 import net.minecraft.util.math.AxisAlignedBB;
 import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.MathHelper;
 import net.minecraft.world.IBlockAccess;
 import net.minecraft.world.World;
-import net.minecraftforge.fml.client.registry.ClientRegistry;
 import net.minecraftforge.fml.relauncher.Side;
 import net.minecraftforge.fml.relauncher.SideOnly;
 
-public abstract class BlockAutoRailBase extends ExtendedBlock
-        implements ITileEntityProvider {
+public abstract class BlockAutoRailBase extends ExtendedBlock {
 
     protected static final AxisAlignedBB FLAT_AABB =
             new AxisAlignedBB(0.0D, 0.0D, 0.0D, 1.0D, 0.125D, 1.0D);
@@ -76,8 +76,7 @@ public abstract class BlockAutoRailBase extends ExtendedBlock
     @Override
     public void clientInit() {
         super.clientInit();
-        ClientRegistry.bindTileEntitySpecialRenderer(
-                TileEntityAutoRailBase.class, new TESRRailSegmentDisplay());
+        RailSegmentOverlay.register();
     }
 
     @SuppressWarnings("deprecation")
@@ -143,6 +142,8 @@ public abstract class BlockAutoRailBase extends ExtendedBlock
     @Override
     public void onBlockAdded(World worldIn, BlockPos pos, IBlockState state) {
         if (!worldIn.isRemote) {
+            Rail.getOrCreate(worldIn, pos);
+            RailUpdateQueue.schedule(worldIn, pos);
             state = this.updateDir(worldIn, pos, state, true);
         }
     }
@@ -188,10 +189,26 @@ public abstract class BlockAutoRailBase extends ExtendedBlock
         }
     }
 
+    @Override
+    public void onEntityCollidedWithBlock(World worldIn, BlockPos pos,
+            IBlockState state, Entity entityIn) {
+        if (worldIn.isRemote || !(entityIn instanceof EntityMinecart)) {
+            return;
+        }
+        // a cart overlaps the rails next to it too, only count the one it is
+        // on, which is the block below the cart on slopes
+        int y = MathHelper.floor_double(entityIn.posY);
+        if (MathHelper.floor_double(entityIn.posX) == pos.getX()
+                && MathHelper.floor_double(entityIn.posZ) == pos.getZ()
+                && (y == pos.getY() || y == pos.getY() + 1)) {
+            SegmentOccupancy.onCartAt(worldIn, (EntityMinecart) entityIn, pos);
+        }
+    }
+
     protected void updateState(IBlockState blockState, World world,
             BlockPos pos, Block block) {
-        CraftorioMod.getLogger().info("updateState " + pos);
-        ((TileEntityAutoRailBase) world.getTileEntity(pos)).updateLinks();
+        Rail.getOrCreate(world, pos);
+        RailUpdateQueue.schedule(world, pos);
     }
 
     protected IBlockState updateDir(World worldIn, BlockPos pos,
@@ -201,10 +218,6 @@ public abstract class BlockAutoRailBase extends ExtendedBlock
                         .place(p_176564_4_).getBlockState();
     }
 
-    @Override
-    public abstract TileEntityAutoRailBase createNewTileEntity(World worldIn,
-            int meta);
-
     @SuppressWarnings("deprecation")
     @Override
     public EnumPushReaction getMobilityFlag(IBlockState state) {
@@ -219,10 +232,9 @@ public abstract class BlockAutoRailBase extends ExtendedBlock
 
     @Override
     public void breakBlock(World worldIn, BlockPos pos, IBlockState state) {
-        TileEntityAutoRailBase tile =
-                (TileEntityAutoRailBase) worldIn.getTileEntity(pos);
-        if (tile != null) {
-
+        Rail rail = Rail.at(worldIn, pos);
+        if (rail != null) {
+            rail.onBroken();
         }
         if (state.getValue(this.getShapeProperty()).isAscending()) {
             worldIn.notifyNeighborsOfStateChange(pos.up(), this);
@@ -24,11 +24,8 @@
  */
 package com.techshroom.mods.craftorio.block;
 
-import com.techshroom.mods.craftorio.block.entity.TileEntityAutoRailNormal;
-
 import net.minecraft.block.properties.IProperty;
 import net.minecraft.block.properties.PropertyEnum;
-import net.minecraft.world.World;
 
 public class BlockAutoRailNormal extends BlockAutoRailBase {
 
@@ -39,12 +36,6 @@ public class BlockAutoRailNormal extends BlockAutoRailBase {
         super("normal_rail");
     }
 
-    @Override
-    public TileEntityAutoRailNormal createNewTileEntity(World worldIn,
-            int meta) {
-        return new TileEntityAutoRailNormal();
-    }
-
     @Override
     public IProperty<RailDirection> getShapeProperty() {
         return SHAPE;
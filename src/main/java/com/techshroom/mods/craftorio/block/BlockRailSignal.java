@@ -101,26 +101,32 @@ public class BlockRailSignal extends ExtendedBlock
     @SuppressWarnings("deprecation")
     @Override
     public IBlockState getStateFromMeta(int meta) {
-        int light = meta & 0b11;
+        // the low bits used to hold the light, which is in the tile entity
+        // now
         int attached = (meta >> 2) & 0b11;
-        return getDefaultState()
-                .withProperty(LIGHT_PROPERTY, LightValue.values()[light])
-                .withProperty(ATTACHED_RAIL_PROPERTY,
-                        EnumFacing.HORIZONTALS[attached]);
+        return getDefaultState().withProperty(ATTACHED_RAIL_PROPERTY,
+                EnumFacing.HORIZONTALS[attached]);
     }
 
     @Override
     public int getMetaFromState(IBlockState state) {
-        return state.getValue(LIGHT_PROPERTY).ordinal() + (state
-                .getValue(ATTACHED_RAIL_PROPERTY).getHorizontalIndex() << 2);
+        return state.getValue(ATTACHED_RAIL_PROPERTY)
+                .getHorizontalIndex() << 2;
     }
 
     @SuppressWarnings("deprecation")
     @Override
     public IBlockState getActualState(IBlockState state, IBlockAccess worldIn,
             BlockPos pos) {
-        return state.withProperty(FACING_PRORERTY,
-                calculateFacingFromState(state));
+        return state
+                .withProperty(FACING_PRORERTY, calculateFacingFromState(state))
+                .withProperty(LIGHT_PROPERTY, getAspect(worldIn, pos));
+    }
+
+    private static LightValue getAspect(IBlockAccess world, BlockPos pos) {
+        TileEntity te = world.getTileEntity(pos);
+        return te instanceof TileEntityRailSignal
+                ? ((TileEntityRailSignal) te).getAspect() : LightValue.NONE;
     }
 
     private EnumFacing calculateFacingFromState(IBlockState state) {
@@ -200,7 +206,7 @@ public class BlockRailSignal extends ExtendedBlock
         TileEntityRailSignal signal =
                 (TileEntityRailSignal) worldIn.getTileEntity(pos);
 
-        signal.getAttachedRail().ifPresent(r -> r.onSignalDetached(signal));
+        signal.detach();
         super.breakBlock(worldIn, pos, state);
     }
 
@@ -222,7 +228,7 @@ public class BlockRailSignal extends ExtendedBlock
     @Override
     public int getLightValue(IBlockState state, IBlockAccess world,
             BlockPos pos) {
-        return state.getValue(LIGHT_PROPERTY) == LightValue.NONE ? 0 : 10;
+        return getAspect(world, pos) == LightValue.NONE ? 0 : 10;
     }
 
     @SuppressWarnings("deprecation")
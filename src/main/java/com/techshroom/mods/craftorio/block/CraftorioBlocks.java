@@ -29,7 +29,6 @@ import java.awt.Color;
 import javax.annotation.Nullable;
 
 import com.techshroom.mods.craftorio.Constants;
-import com.techshroom.mods.craftorio.block.entity.TileEntityAutoRailNormal;
 import com.techshroom.mods.craftorio.block.entity.TileEntityRailSignal;
 
 import net.minecraft.block.Block;
@@ -62,7 +61,7 @@ public final class CraftorioBlocks {
 
     public static void registerBlocks() {
         register(RAIL_SIGNAL, "rail_signal", TileEntityRailSignal.class);
-        register(NORMAL_RAIL, "normal_rail", TileEntityAutoRailNormal.class);
+        register(NORMAL_RAIL, "normal_rail");
     }
 
     public static void loadColorHandlers() {
@@ -24,95 +24,292 @@
  */
 package com.techshroom.mods.craftorio.block.entity;
 
-import java.util.Collections;
+import java.util.Map;
 import java.util.Optional;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.WeakHashMap;
 
 import com.techshroom.mods.craftorio.block.BlockRailSignal;
 import com.techshroom.mods.craftorio.block.LightValue;
+import com.techshroom.mods.craftorio.network.ChunkWatchers;
+import com.techshroom.mods.craftorio.network.SignalAspectMessage;
+import com.techshroom.mods.craftorio.rail.Rail;
+import com.techshroom.mods.craftorio.segment.Segment;
 import com.techshroom.mods.craftorio.signal.BlockingState;
-import com.techshroom.mods.craftorio.util.GeneralUtility;
+import com.techshroom.mods.craftorio.util.ChunkWaitList;
+import com.techshroom.mods.craftorio.util.LongHashSet;
 
+import net.minecraft.nbt.NBTTagCompound;
 import net.minecraft.tileentity.TileEntity;
 import net.minecraft.util.EnumFacing;
+import net.minecraft.util.math.BlockPos;
 import net.minecraft.world.World;
-import net.minecraft.world.chunk.Chunk.EnumCreateEntityType;
+import net.minecraft.world.chunk.Chunk;
 import net.minecraftforge.common.MinecraftForge;
 import net.minecraftforge.event.world.ChunkEvent;
 import net.minecraftforge.fml.common.eventhandler.SubscribeEvent;
+import net.minecraftforge.fml.common.gameevent.TickEvent;
 
 public class TileEntityRailSignal extends TileEntity {
 
-    private static final class OnChunkLoad {
+    private static final class Hooks {
 
         @SubscribeEvent
         public void onChunkLoad(ChunkEvent.Load load) {
-            updateAll();
+            World world = load.getWorld();
+            Chunk chunk = load.getChunk();
+            LongHashSet positions =
+                    waiting.take(world, chunk.xPosition, chunk.zPosition);
+            if (positions == null) {
+                return;
+            }
+            positions.forEach(pos -> {
+                TileEntity te = world.getTileEntity(BlockPos.fromLong(pos));
+                if (te instanceof TileEntityRailSignal) {
+                    ((TileEntityRailSignal) te).recalculateLighting();
+                }
+            });
+        }
+
+        @SubscribeEvent
+        public void onWorldTick(TickEvent.WorldTickEvent event) {
+            if (event.phase == TickEvent.Phase.END
+                    && !event.world.isRemote) {
+                syncAspects(event.world);
+            }
         }
 
     }
 
     public static void addHooks() {
-        MinecraftForge.EVENT_BUS.register(new OnChunkLoad());
+        MinecraftForge.EVENT_BUS.register(new Hooks());
     }
 
-    private static final Set<TileEntityRailSignal> updateMe =
-            Collections.newSetFromMap(new ConcurrentHashMap<>());
+    /**
+     * Signals whose aspect changed this tick, synced once at the end of it.
+     */
+    private static final Map<World, LongHashSet> changedAspects =
+            new WeakHashMap<>();
 
-    private static void updateAll() {
-        updateMe.forEach(TileEntityRailSignal::recalculateLighting);
-        updateMe.clear();
+    private static void syncAspects(World world) {
+        LongHashSet changed = changedAspects.remove(world);
+        if (changed == null) {
+            return;
+        }
+        changed.forEach(pos -> {
+            BlockPos blockPos = BlockPos.fromLong(pos);
+            if (!world.isBlockLoaded(blockPos)) {
+                return;
+            }
+            TileEntity te = world.getTileEntity(blockPos);
+            if (te instanceof TileEntityRailSignal) {
+                ((TileEntityRailSignal) te).syncAspect();
+            }
+        });
     }
 
+    /**
+     * Signals that couldn't attach because their chunk wasn't loaded.
+     */
+    private static final ChunkWaitList waiting = new ChunkWaitList();
+
+    /**
+     * The rail this signal was last attached to and the rail it guarded, or
+     * {@code null} if it isn't attached.
+     */
+    private BlockPos attachedRail;
+    private BlockPos guardedRail;
+    private LightValue aspect = LightValue.NONE;
+    /**
+     * The aspect clients were last told about.
+     */
+    private LightValue syncedAspect = LightValue.NONE;
+
     @Override
     public void onLoad() {
         recalculateLighting();
     }
 
-    public Optional<TileEntityAutoRailBase> getAttachedRail() {
+    @Override
+    public void readFromNBT(NBTTagCompound compound) {
+        super.readFromNBT(compound);
+        this.aspect = LightValue.values()[compound.getByte("aspect")];
+        this.syncedAspect = this.aspect;
+        if (compound.hasKey("attachedRail") && compound.hasKey("guardedRail")) {
+            this.attachedRail =
+                    BlockPos.fromLong(compound.getLong("attachedRail"));
+            this.guardedRail =
+                    BlockPos.fromLong(compound.getLong("guardedRail"));
+        } else {
+            this.attachedRail = null;
+            this.guardedRail = null;
+        }
+    }
+
+    @Override
+    public NBTTagCompound writeToNBT(NBTTagCompound compound) {
+        compound = super.writeToNBT(compound);
+        compound.setByte("aspect", (byte) this.aspect.ordinal());
+        if (this.attachedRail != null) {
+            compound.setLong("attachedRail", this.attachedRail.toLong());
+            compound.setLong("guardedRail", this.guardedRail.toLong());
+        }
+        return compound;
+    }
+
+    @Override
+    public NBTTagCompound getUpdateTag() {
+        // sent with the chunk, so clients know the aspect from the start
+        return writeToNBT(new NBTTagCompound());
+    }
+
+    public Optional<Rail> getAttachedRail() {
         World w = getWorld();
         EnumFacing attachedDir = w.getBlockState(getPos())
                 .getValue(BlockRailSignal.ATTACHED_RAIL_PROPERTY);
-        return Optional
-                .ofNullable(w.getChunkFromBlockCoords(getPos()).getTileEntity(
-                        getPos().offset(attachedDir),
-                        EnumCreateEntityType.CHECK))
-                .map(GeneralUtility.castOrNull(TileEntityAutoRailBase.class));
+        return Optional.ofNullable(Rail.at(w, getPos().offset(attachedDir)));
+    }
+
+    /**
+     * Returns the rail whose segment this signal guards.
+     */
+    public Optional<Rail> getGuardedRail() {
+        return getAttachedRail().map(r -> r.findRailInSegment(this));
     }
 
     public void recalculateLighting() {
         World w = getWorld();
         if (!w.isBlockLoaded(getPos())) {
-            updateMe.add(this);
+            waiting.add(w, getPos());
             return;
         }
+        for (BlockPos rail : new BlockPos[] { this.attachedRail,
+                this.guardedRail }) {
+            if (rail != null && !w.isBlockLoaded(rail)) {
+                // can't tell if anything moved yet
+                waiting.add(w, getPos(), rail);
+                return;
+            }
+        }
 
-        getAttachedRail().ifPresent(r -> r.onSignalAttached(this));
+        Rail attached = getAttachedRail().orElse(null);
+        Rail guarded =
+                attached == null ? null : attached.findRailInSegment(this);
+        if (guarded != null && attached.getPos().equals(this.attachedRail)
+                && guarded.getPos().equals(this.guardedRail)
+                && guarded.isBlockedFrom(attached)) {
+            // nothing moved, at most the segment forgot about us or changed
+            // state while we were unloaded
+            Segment segment = guarded.getSegment();
+            if (segment != null && !segment.hasSignal(this)) {
+                segment.addRailSignal(this);
+            } else if (segment != null) {
+                onStateChange(segment.getState(), segment.getState());
+            }
+            return;
+        }
+        detach();
+        if (guarded != null) {
+            attached.onSignalAttached(this, guarded);
+            this.attachedRail = attached.getPos();
+            this.guardedRail = guarded.getPos();
+            markDirty();
+        }
     }
 
-    private void setState(LightValue light) {
+    /**
+     * Undoes the last attachment of this signal, if the rail it was attached
+     * to is loaded.
+     */
+    public void detach() {
+        if (this.attachedRail == null) {
+            return;
+        }
         World w = getWorld();
-        w.setBlockState(getPos(), w.getBlockState(getPos())
-                .withProperty(BlockRailSignal.LIGHT_PROPERTY, light));
+        Rail previous = Rail.at(w, this.attachedRail);
+        if (previous != null) {
+            previous.onSignalDetached(this, Rail.at(w, this.guardedRail));
+        }
+        this.attachedRail = null;
+        this.guardedRail = null;
+        markDirty();
+        showAspect(LightValue.NONE);
+    }
+
+    public LightValue getAspect() {
+        return this.aspect;
+    }
+
+    private void setAspect(LightValue aspect) {
+        if (aspect == this.aspect) {
+            return;
+        }
+        boolean lit = aspect != LightValue.NONE;
+        boolean wasLit = this.aspect != LightValue.NONE;
+        this.aspect = aspect;
+        if (lit != wasLit) {
+            // only when the signal is first attached or taken off its rail
+            getWorld().checkLight(getPos());
+        }
     }
 
+    /**
+     * Applies an aspect sent by the server.
+     */
+    public void setAspectFromServer(LightValue aspect) {
+        if (aspect != this.aspect) {
+            setAspect(aspect);
+            getWorld().markBlockRangeForRenderUpdate(getPos(), getPos());
+        }
+    }
+
+    private void syncAspect() {
+        World w = getWorld();
+        w.markChunkDirty(getPos(), this);
+        if (this.syncedAspect == this.aspect) {
+            // changed back within the tick
+            return;
+        }
+        this.syncedAspect = this.aspect;
+        ChunkWatchers.send(w, getPos().getX() >> 4, getPos().getZ() >> 4,
+                new SignalAspectMessage(w.provider.getDimension(),
+                        getPos().toLong(), this.aspect));
+    }
+
+    /**
+     * Shows the state of the guarded segment. Only the tile entity changes
+     * here, clients are told at the end of the tick.
+     */
     public void onStateChange(BlockingState previousState,
             BlockingState newState) {
+        LightValue aspect;
         switch (newState) {
             case OPEN:
-                setState(LightValue.GREEN);
+                aspect = LightValue.GREEN;
                 break;
             case EXPECTING:
-                setState(LightValue.YELLOW);
+                aspect = LightValue.YELLOW;
                 break;
             case CLOSED:
-                setState(LightValue.RED);
+                aspect = LightValue.RED;
                 break;
             default:
-                setState(LightValue.NONE);
+                aspect = LightValue.NONE;
                 break;
         }
+        showAspect(aspect);
+    }
+
+    /**
+     * Changes the aspect on the server and queues it for syncing.
+     */
+    private void showAspect(LightValue aspect) {
+        World w = getWorld();
+        if (w.isRemote || aspect == this.aspect) {
+            return;
+        }
+        setAspect(aspect);
+        changedAspects.computeIfAbsent(w, k -> new LongHashSet())
+                .add(getPos().toLong());
     }
 
 }
@@ -0,0 +1,131 @@
+/*
+ * This file is part of Craftorio, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) TechShroom Studios <https://techshoom.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.techshroom.mods.craftorio.network;
+
+import java.util.List;
+
+import net.minecraft.entity.player.EntityPlayerMP;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.world.World;
+import net.minecraftforge.common.MinecraftForge;
+import net.minecraftforge.event.world.ChunkWatchEvent;
+import net.minecraftforge.event.world.WorldEvent;
+import net.minecraftforge.fml.common.eventhandler.SubscribeEvent;
+import net.minecraftforge.fml.common.gameevent.PlayerEvent;
+import net.minecraftforge.fml.common.network.simpleimpl.IMessage;
+
+/**
+ * Tracks which players have each chunk loaded on their client, following the
+ * server's own chunk watch events. Sync messages go to exactly those players,
+ * at the cost of a map lookup per chunk instead of a distance check per
+ * player.
+ * 
+ * <p>
+ * When a player changes dimension, the old world fires its unwatch events
+ * after the player has already moved to the new one, so they can't be told
+ * apart from unwatches in the new world. The player is dropped from every
+ * other world once the change is done, and from all of them on logout.
+ * </p>
+ */
+public final class ChunkWatchers {
+
+    private static final class Hooks {
+
+        @SubscribeEvent
+        public void onChunkWatch(ChunkWatchEvent.Watch event) {
+            EntityPlayerMP player = event.getPlayer();
+            watchers.watch(player.worldObj, key(event.getChunk()), player);
+        }
+
+        @SubscribeEvent
+        public void onChunkUnWatch(ChunkWatchEvent.UnWatch event) {
+            EntityPlayerMP player = event.getPlayer();
+            watchers.unWatch(player.worldObj, key(event.getChunk()), player);
+        }
+
+        @SubscribeEvent
+        public void onPlayerChangedDimension(
+                PlayerEvent.PlayerChangedDimensionEvent event) {
+            if (event.player instanceof EntityPlayerMP) {
+                watchers.forget((EntityPlayerMP) event.player,
+                        event.player.worldObj);
+            }
+        }
+
+        @SubscribeEvent
+        public void onPlayerLoggedOut(PlayerEvent.PlayerLoggedOutEvent event) {
+            if (event.player instanceof EntityPlayerMP) {
+                watchers.forget((EntityPlayerMP) event.player, null);
+            }
+        }
+
+        @SubscribeEvent
+        public void onWorldUnload(WorldEvent.Unload event) {
+            watchers.removeWorld(event.getWorld());
+        }
+
+    }
+
+    public static void addHooks() {
+        MinecraftForge.EVENT_BUS.register(new Hooks());
+    }
+
+    private static final WatchIndex<World, EntityPlayerMP> watchers =
+            new WatchIndex<>();
+
+    private static long key(ChunkPos pos) {
+        return ChunkPos.chunkXZ2Int(pos.chunkXPos, pos.chunkZPos);
+    }
+
+    /**
+     * Returns the players watching the chunk. Server only.
+     */
+    public static List<EntityPlayerMP> get(World world, int chunkX,
+            int chunkZ) {
+        return watchers.get(world, ChunkPos.chunkXZ2Int(chunkX, chunkZ));
+    }
+
+    /**
+     * Returns the keys of the chunks {@code player} watches, as given by
+     * {@link ChunkPos#chunkXZ2Int(int, int)}. Server only.
+     */
+    public static long[] getWatched(EntityPlayerMP player) {
+        return watchers.getWatched(player.worldObj, player);
+    }
+
+    /**
+     * Sends {@code message} to every player watching the chunk.
+     */
+    public static void send(World world, int chunkX, int chunkZ,
+            IMessage message) {
+        for (EntityPlayerMP player : get(world, chunkX, chunkZ)) {
+            CraftorioNetwork.CHANNEL.sendTo(message, player);
+        }
+    }
+
+    private ChunkWatchers() {
+    }
+
+}
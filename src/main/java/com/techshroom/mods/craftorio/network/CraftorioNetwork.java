@@ -0,0 +1,57 @@
+/*
+ * This file is part of Craftorio, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) TechShroom Studios <https://techshoom.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.techshroom.mods.craftorio.network;
+
+import com.techshroom.mods.craftorio.Constants;
+
+import net.minecraftforge.fml.common.network.NetworkRegistry;
+import net.minecraftforge.fml.common.network.simpleimpl.SimpleNetworkWrapper;
+import net.minecraftforge.fml.relauncher.Side;
+
+public final class CraftorioNetwork {
+
+    public static final SimpleNetworkWrapper CHANNEL =
+            NetworkRegistry.INSTANCE.newSimpleChannel(Constants.MOD_ID);
+
+    public static void registerMessages() {
+        int id = 0;
+        CHANNEL.registerMessage(SegmentMergeMessage.Handler.class,
+                SegmentMergeMessage.class, id++, Side.CLIENT);
+        CHANNEL.registerMessage(RailChunkMessage.Handler.class,
+                RailChunkMessage.class, id++, Side.CLIENT);
+        CHANNEL.registerMessage(RailDeltaMessage.Handler.class,
+                RailDeltaMessage.class, id++, Side.CLIENT);
+        CHANNEL.registerMessage(SignalAspectMessage.Handler.class,
+                SignalAspectMessage.class, id++, Side.CLIENT);
+        CHANNEL.registerMessage(RailHashMessage.Handler.class,
+                RailHashMessage.class, id++, Side.SERVER);
+        CHANNEL.registerMessage(RailHashQueryMessage.Handler.class,
+                RailHashQueryMessage.class, id++, Side.CLIENT);
+    }
+
+    private CraftorioNetwork() {
+    }
+
+}
@@ -0,0 +1,196 @@
+/*
+ * This file is part of Craftorio, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) TechShroom Studios <https://techshoom.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.techshroom.mods.craftorio.network;
+
+import java.util.Arrays;
+
+import com.techshroom.mods.craftorio.rail.RailChunk;
+import com.techshroom.mods.craftorio.rail.RailGraph;
+import com.techshroom.mods.craftorio.segment.SegmentRegistry;
+
+import io.netty.buffer.ByteBuf;
+import net.minecraft.client.Minecraft;
+import net.minecraft.world.World;
+import net.minecraftforge.fml.common.network.simpleimpl.IMessage;
+import net.minecraftforge.fml.common.network.simpleimpl.IMessageHandler;
+import net.minecraftforge.fml.common.network.simpleimpl.MessageContext;
+
+/**
+ * Sends all rails of a chunk to a player that started watching it, as a
+ * snapshot for the client's copy of the rail graph.
+ * 
+ * <p>
+ * The segment ids of the chunk go first, each once, in a palette. Every rail
+ * is then packed into {@code 16 + 12 + b} bits of a long array (in-chunk
+ * index, links, palette index), where {@code b} is the number of bits needed
+ * to tell the palette entries apart. A chunk of one segment takes three and a
+ * half bytes per rail.
+ * </p>
+ */
+public class RailChunkMessage implements IMessage {
+
+    public static final class Handler
+            implements IMessageHandler<RailChunkMessage, IMessage> {
+
+        @Override
+        public IMessage onMessage(RailChunkMessage message,
+                MessageContext ctx) {
+            Minecraft mc = Minecraft.getMinecraft();
+            mc.addScheduledTask(() -> {
+                World world = mc.theWorld;
+                if (world == null
+                        || world.provider.getDimension() != message.dimension) {
+                    return;
+                }
+                SegmentRegistry registry = SegmentRegistry.get(world);
+                RailChunk rails = message.rails;
+                for (int i = 0; i < rails.size(); i++) {
+                    int id = rails.getSegmentId(i);
+                    if (id != RailChunk.NO_SEGMENT) {
+                        registry.restore(id);
+                    }
+                }
+                registry.getGraph().loadChunk(rails);
+            });
+            return null;
+        }
+
+    }
+
+    private static final int INDEX_BITS = 16;
+
+    private int dimension;
+    private RailChunk rails;
+
+    // for deserialization
+    public RailChunkMessage() {
+    }
+
+    public RailChunkMessage(int dimension, RailChunk rails) {
+        this.dimension = dimension;
+        this.rails = rails;
+    }
+
+    RailChunk getRails() {
+        return this.rails;
+    }
+
+    private static int paletteBits(int paletteSize) {
+        return 32 - Integer.numberOfLeadingZeros(Math.max(paletteSize - 1, 0));
+    }
+
+    private static long readBits(long[] data, long bit, int count) {
+        int word = (int) (bit >>> 6);
+        int offset = (int) (bit & 63);
+        long value = data[word] >>> offset;
+        if (offset + count > 64) {
+            value |= data[word + 1] << (64 - offset);
+        }
+        return value & ((1L << count) - 1);
+    }
+
+    private static void writeBits(long[] data, long bit, int count,
+            long value) {
+        int word = (int) (bit >>> 6);
+        int offset = (int) (bit & 63);
+        data[word] |= value << offset;
+        if (offset + count > 64) {
+            data[word + 1] |= value >>> (64 - offset);
+        }
+    }
+
+    @Override
+    public void fromBytes(ByteBuf buf) {
+        this.dimension = buf.readInt();
+        this.rails = new RailChunk(buf.readInt(), buf.readInt());
+        int[] palette = new int[buf.readUnsignedShort()];
+        for (int i = 0; i < palette.length; i++) {
+            palette[i] = buf.readInt();
+        }
+        int size = buf.readUnsignedShort();
+        int bits = INDEX_BITS + RailGraph.LINK_BITS
+                + paletteBits(palette.length);
+        long[] data = new long[(int) ((long) size * bits + 63 >>> 6)];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = buf.readLong();
+        }
+        long bit = 0;
+        for (int j = 0; j < size; j++) {
+            long entry = readBits(data, bit, bits);
+            bit += bits;
+            int i = this.rails.add((int) (entry & 0xFFFF));
+            this.rails.setLinks(i, (int) (entry >>> INDEX_BITS)
+                    & ((1 << RailGraph.LINK_BITS) - 1));
+            this.rails.setSegmentId(i, palette[(int) (entry
+                    >>> (INDEX_BITS + RailGraph.LINK_BITS))]);
+        }
+    }
+
+    @Override
+    public void toBytes(ByteBuf buf) {
+        RailChunk rails = this.rails;
+        buf.writeInt(this.dimension);
+        buf.writeInt(rails.getChunkX());
+        buf.writeInt(rails.getChunkZ());
+        // a chunk rarely has more than a handful of segments
+        int[] palette = new int[4];
+        int paletteSize = 0;
+        int[] paletteIndex = new int[rails.size()];
+        for (int i = 0; i < rails.size(); i++) {
+            int id = rails.getSegmentId(i);
+            int p = 0;
+            while (p < paletteSize && palette[p] != id) {
+                p++;
+            }
+            if (p == paletteSize) {
+                if (paletteSize == palette.length) {
+                    palette = Arrays.copyOf(palette, paletteSize * 2);
+                }
+                palette[paletteSize++] = id;
+            }
+            paletteIndex[i] = p;
+        }
+        buf.writeShort(paletteSize);
+        for (int p = 0; p < paletteSize; p++) {
+            buf.writeInt(palette[p]);
+        }
+        buf.writeShort(rails.size());
+        int bits = INDEX_BITS + RailGraph.LINK_BITS + paletteBits(paletteSize);
+        long[] data = new long[(int) ((long) rails.size() * bits + 63 >>> 6)];
+        long bit = 0;
+        for (int i = 0; i < rails.size(); i++) {
+            long entry = rails.getIndex(i)
+                    | (long) rails.getLinks(i) << INDEX_BITS
+                    | (long) paletteIndex[i]
+                            << (INDEX_BITS + RailGraph.LINK_BITS);
+            writeBits(data, bit, bits, entry);
+            bit += bits;
+        }
+        for (long word : data) {
+            buf.writeLong(word);
+        }
+    }
+
+}
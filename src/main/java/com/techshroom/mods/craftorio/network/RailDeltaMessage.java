@@ -0,0 +1,213 @@
+/*
+ * This file is part of Craftorio, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) TechShroom Studios <https://techshoom.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.techshroom.mods.craftorio.network;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.techshroom.mods.craftorio.rail.RailChunk;
+import com.techshroom.mods.craftorio.rail.RailGraph;
+import com.techshroom.mods.craftorio.segment.SegmentRegistry;
+
+import io.netty.buffer.ByteBuf;
+import net.minecraft.client.Minecraft;
+import net.minecraft.world.World;
+import net.minecraftforge.fml.common.network.simpleimpl.IMessage;
+import net.minecraftforge.fml.common.network.simpleimpl.IMessageHandler;
+import net.minecraftforge.fml.common.network.simpleimpl.MessageContext;
+
+/**
+ * Sends a player what changed about the rails near it during one tick. Rails
+ * are grouped by chunk and only the parts that changed are written, see the
+ * {@code CHANGED_} flags of {@link RailGraph}.
+ */
+public class RailDeltaMessage implements IMessage {
+
+    public static final class Handler
+            implements IMessageHandler<RailDeltaMessage, IMessage> {
+
+        @Override
+        public IMessage onMessage(RailDeltaMessage message,
+                MessageContext ctx) {
+            Minecraft mc = Minecraft.getMinecraft();
+            mc.addScheduledTask(() -> {
+                World world = mc.theWorld;
+                if (world == null
+                        || world.provider.getDimension() != message.dimension) {
+                    return;
+                }
+                SegmentRegistry registry = SegmentRegistry.get(world);
+                for (ChunkDelta delta : message.chunks) {
+                    delta.apply(registry);
+                }
+            });
+            return null;
+        }
+
+    }
+
+    /**
+     * The changed rails of one chunk. Built once per tick and shared by the
+     * messages of every player that gets it.
+     */
+    public static final class ChunkDelta {
+
+        private final int chunkX;
+        private final int chunkZ;
+        private char[] indices = new char[4];
+        private byte[] flags = new byte[4];
+        private short[] links = new short[4];
+        private int[] segments = new int[4];
+        private int size;
+
+        public ChunkDelta(int chunkX, int chunkZ) {
+            this.chunkX = chunkX;
+            this.chunkZ = chunkZ;
+        }
+
+        public int getChunkX() {
+            return this.chunkX;
+        }
+
+        public int getChunkZ() {
+            return this.chunkZ;
+        }
+
+        /**
+         * Adds a changed rail. {@code links} and {@code segmentId} are only
+         * sent if {@code flags} says they changed.
+         */
+        public void add(int index, int flags, int links, int segmentId) {
+            if (this.size == this.indices.length) {
+                int capacity = this.size * 2;
+                this.indices = Arrays.copyOf(this.indices, capacity);
+                this.flags = Arrays.copyOf(this.flags, capacity);
+                this.links = Arrays.copyOf(this.links, capacity);
+                this.segments = Arrays.copyOf(this.segments, capacity);
+            }
+            this.indices[this.size] = (char) index;
+            this.flags[this.size] = (byte) flags;
+            this.links[this.size] = (short) links;
+            this.segments[this.size] = segmentId;
+            this.size++;
+        }
+
+        private void apply(SegmentRegistry registry) {
+            RailGraph graph = registry.getGraph();
+            for (int i = 0; i < this.size; i++) {
+                long pos = RailChunk.fromLocalIndex(this.chunkX, this.chunkZ,
+                        this.indices[i]).toLong();
+                int changed = this.flags[i];
+                if ((changed & RailGraph.CHANGED_REMOVED) != 0) {
+                    graph.remove(pos);
+                    continue;
+                }
+                graph.add(pos);
+                if ((changed & RailGraph.CHANGED_LINKS) != 0) {
+                    graph.setLinks(pos, this.links[i] & 0xFFFF);
+                }
+                if ((changed & RailGraph.CHANGED_SEGMENT) != 0) {
+                    int id = this.segments[i];
+                    if (id != RailChunk.NO_SEGMENT) {
+                        registry.restore(id);
+                    }
+                    graph.setSegmentId(pos, id);
+                }
+            }
+        }
+
+        private void write(ByteBuf buf) {
+            buf.writeInt(this.chunkX);
+            buf.writeInt(this.chunkZ);
+            buf.writeShort(this.size);
+            for (int i = 0; i < this.size; i++) {
+                int changed = this.flags[i];
+                buf.writeShort(this.indices[i]);
+                buf.writeByte(changed);
+                if ((changed & RailGraph.CHANGED_LINKS) != 0) {
+                    buf.writeShort(this.links[i]);
+                }
+                if ((changed & RailGraph.CHANGED_SEGMENT) != 0) {
+                    buf.writeInt(this.segments[i]);
+                }
+            }
+        }
+
+        private static ChunkDelta read(ByteBuf buf) {
+            ChunkDelta delta = new ChunkDelta(buf.readInt(), buf.readInt());
+            int size = buf.readUnsignedShort();
+            for (int i = 0; i < size; i++) {
+                int index = buf.readUnsignedShort();
+                int changed = buf.readByte();
+                int links = (changed & RailGraph.CHANGED_LINKS) != 0
+                        ? buf.readUnsignedShort() : 0;
+                int segmentId = (changed & RailGraph.CHANGED_SEGMENT) != 0
+                        ? buf.readInt() : RailChunk.NO_SEGMENT;
+                delta.add(index, changed, links, segmentId);
+            }
+            return delta;
+        }
+
+        @Override
+        public String toString() {
+            return "ChunkDelta[x=" + this.chunkX + ",z=" + this.chunkZ
+                    + ",size=" + this.size + "]";
+        }
+
+    }
+
+    private int dimension;
+    private List<ChunkDelta> chunks;
+
+    // for deserialization
+    public RailDeltaMessage() {
+    }
+
+    public RailDeltaMessage(int dimension, List<ChunkDelta> chunks) {
+        this.dimension = dimension;
+        this.chunks = chunks;
+    }
+
+    @Override
+    public void fromBytes(ByteBuf buf) {
+        this.dimension = buf.readInt();
+        int count = buf.readUnsignedShort();
+        this.chunks = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            this.chunks.add(ChunkDelta.read(buf));
+        }
+    }
+
+    @Override
+    public void toBytes(ByteBuf buf) {
+        buf.writeInt(this.dimension);
+        buf.writeShort(this.chunks.size());
+        for (ChunkDelta delta : this.chunks) {
+            delta.write(buf);
+        }
+    }
+
+}
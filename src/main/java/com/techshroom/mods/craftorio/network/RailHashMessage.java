@@ -0,0 +1,181 @@
+/*
+ * This file is part of Craftorio, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) TechShroom Studios <https://techshoom.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.techshroom.mods.craftorio.network;
+
+import java.util.Map;
+
+import com.techshroom.mods.craftorio.rail.RailResync;
+
+import io.netty.buffer.ByteBuf;
+import net.minecraft.entity.player.EntityPlayerMP;
+import net.minecraft.world.WorldServer;
+import net.minecraftforge.fml.common.network.simpleimpl.IMessage;
+import net.minecraftforge.fml.common.network.simpleimpl.IMessageHandler;
+import net.minecraftforge.fml.common.network.simpleimpl.MessageContext;
+
+/**
+ * Sends the server hashes of the client's copy of the rail graph, one level
+ * of {@link com.techshroom.mods.craftorio.rail.RailHashes} at a time. The
+ * server answers with a {@link RailHashQueryMessage} for the next level down
+ * where the hashes differ, and finally with the chunks that differ.
+ */
+public class RailHashMessage implements IMessage {
+
+    public static final class Handler
+            implements IMessageHandler<RailHashMessage, IMessage> {
+
+        @Override
+        public IMessage onMessage(RailHashMessage message,
+                MessageContext ctx) {
+            EntityPlayerMP player = ctx.getServerHandler().playerEntity;
+            ((WorldServer) player.worldObj).addScheduledTask(() -> {
+                int dimension = player.worldObj.provider.getDimension();
+                if (dimension == message.dimension) {
+                    RailResync.onReport(player, message);
+                }
+            });
+            return null;
+        }
+
+    }
+
+    public enum Level {
+        /**
+         * A single hash of everything.
+         */
+        ROOT,
+        /**
+         * The hash of each region.
+         */
+        REGIONS,
+        /**
+         * The hash of each chunk in the regions of the scope.
+         */
+        CHUNKS
+    }
+
+    private static final long[] NONE = new long[0];
+
+    public static RailHashMessage root(int dimension, long root) {
+        return new RailHashMessage(dimension, Level.ROOT, NONE,
+                new long[] { 0 }, new long[] { root });
+    }
+
+    public static RailHashMessage regions(int dimension,
+            Map<Long, Long> regions) {
+        return of(dimension, Level.REGIONS, NONE, regions);
+    }
+
+    public static RailHashMessage chunks(int dimension, long[] scope,
+            Map<Long, Long> chunks) {
+        return of(dimension, Level.CHUNKS, scope, chunks);
+    }
+
+    private static RailHashMessage of(int dimension, Level level,
+            long[] scope, Map<Long, Long> hashes) {
+        long[] keys = new long[hashes.size()];
+        long[] values = new long[hashes.size()];
+        int i = 0;
+        for (Map.Entry<Long, Long> entry : hashes.entrySet()) {
+            keys[i] = entry.getKey();
+            values[i] = entry.getValue();
+            i++;
+        }
+        return new RailHashMessage(dimension, level, scope, keys, values);
+    }
+
+    private int dimension;
+    private Level level;
+    private long[] scope;
+    private long[] keys;
+    private long[] hashes;
+
+    // for deserialization
+    public RailHashMessage() {
+    }
+
+    private RailHashMessage(int dimension, Level level, long[] scope,
+            long[] keys, long[] hashes) {
+        this.dimension = dimension;
+        this.level = level;
+        this.scope = scope;
+        this.keys = keys;
+        this.hashes = hashes;
+    }
+
+    public Level getLevel() {
+        return this.level;
+    }
+
+    /**
+     * Returns the region keys the chunk hashes were asked for, empty for the
+     * other levels.
+     */
+    public long[] getScope() {
+        return this.scope;
+    }
+
+    public long[] getKeys() {
+        return this.keys;
+    }
+
+    public long[] getHashes() {
+        return this.hashes;
+    }
+
+    private static long[] readLongs(ByteBuf buf) {
+        long[] array = new long[buf.readUnsignedShort()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = buf.readLong();
+        }
+        return array;
+    }
+
+    private static void writeLongs(ByteBuf buf, long[] array) {
+        buf.writeShort(array.length);
+        for (long value : array) {
+            buf.writeLong(value);
+        }
+    }
+
+    @Override
+    public void fromBytes(ByteBuf buf) {
+        this.dimension = buf.readInt();
+        this.level = Level.values()[buf.readByte()];
+        this.scope = readLongs(buf);
+        this.keys = readLongs(buf);
+        this.hashes = readLongs(buf);
+    }
+
+    @Override
+    public void toBytes(ByteBuf buf) {
+        buf.writeInt(this.dimension);
+        buf.writeByte(this.level.ordinal());
+        writeLongs(buf, this.scope);
+        writeLongs(buf, this.keys);
+        writeLongs(buf, this.hashes);
+    }
+
+}
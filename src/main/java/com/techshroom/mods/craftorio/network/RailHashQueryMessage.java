@@ -0,0 +1,101 @@
+/*
+ * This file is part of Craftorio, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) TechShroom Studios <https://techshoom.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.techshroom.mods.craftorio.network;
+
+import com.techshroom.mods.craftorio.network.RailHashMessage.Level;
+import com.techshroom.mods.craftorio.rail.RailHashCheck;
+
+import io.netty.buffer.ByteBuf;
+import net.minecraft.client.Minecraft;
+import net.minecraft.world.World;
+import net.minecraftforge.fml.common.network.simpleimpl.IMessage;
+import net.minecraftforge.fml.common.network.simpleimpl.IMessageHandler;
+import net.minecraftforge.fml.common.network.simpleimpl.MessageContext;
+
+/**
+ * Asks a client for the next level of rail graph hashes, for the regions
+ * where the previous level differed.
+ */
+public class RailHashQueryMessage implements IMessage {
+
+    public static final class Handler
+            implements IMessageHandler<RailHashQueryMessage, IMessage> {
+
+        @Override
+        public IMessage onMessage(RailHashQueryMessage message,
+                MessageContext ctx) {
+            Minecraft mc = Minecraft.getMinecraft();
+            mc.addScheduledTask(() -> {
+                World world = mc.theWorld;
+                if (world == null
+                        || world.provider.getDimension() != message.dimension) {
+                    return;
+                }
+                RailHashCheck.answer(world, message.level, message.scope);
+            });
+            return null;
+        }
+
+    }
+
+    private int dimension;
+    private Level level;
+    private long[] scope;
+
+    // for deserialization
+    public RailHashQueryMessage() {
+    }
+
+    /**
+     * @param scope the region keys to hash chunks of, only used for
+     *        {@link Level#CHUNKS}
+     */
+    public RailHashQueryMessage(int dimension, Level level, long[] scope) {
+        this.dimension = dimension;
+        this.level = level;
+        this.scope = scope;
+    }
+
+    @Override
+    public void fromBytes(ByteBuf buf) {
+        this.dimension = buf.readInt();
+        this.level = Level.values()[buf.readByte()];
+        this.scope = new long[buf.readUnsignedShort()];
+        for (int i = 0; i < this.scope.length; i++) {
+            this.scope[i] = buf.readLong();
+        }
+    }
+
+    @Override
+    public void toBytes(ByteBuf buf) {
+        buf.writeInt(this.dimension);
+        buf.writeByte(this.level.ordinal());
+        buf.writeShort(this.scope.length);
+        for (long region : this.scope) {
+            buf.writeLong(region);
+        }
+    }
+
+}
@@ -0,0 +1,91 @@
+/*
+ * This file is part of Craftorio, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) TechShroom Studios <https://techshoom.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.techshroom.mods.craftorio.network;
+
+import com.techshroom.mods.craftorio.segment.SegmentRegistry;
+
+import io.netty.buffer.ByteBuf;
+import net.minecraft.client.Minecraft;
+import net.minecraft.world.World;
+import net.minecraftforge.fml.common.network.simpleimpl.IMessage;
+import net.minecraftforge.fml.common.network.simpleimpl.IMessageHandler;
+import net.minecraftforge.fml.common.network.simpleimpl.MessageContext;
+
+/**
+ * Tells clients that one segment was merged into another, so they can replay
+ * the merge instead of receiving an update for every rail.
+ */
+public class SegmentMergeMessage implements IMessage {
+
+    public static final class Handler
+            implements IMessageHandler<SegmentMergeMessage, IMessage> {
+
+        @Override
+        public IMessage onMessage(SegmentMergeMessage message,
+                MessageContext ctx) {
+            Minecraft mc = Minecraft.getMinecraft();
+            mc.addScheduledTask(() -> {
+                World world = mc.theWorld;
+                if (world == null
+                        || world.provider.getDimension() != message.dimension) {
+                    return;
+                }
+                SegmentRegistry.get(world).replayMerge(message.winner,
+                        message.loser);
+            });
+            return null;
+        }
+
+    }
+
+    private int dimension;
+    private int winner;
+    private int loser;
+
+    // for deserialization
+    public SegmentMergeMessage() {
+    }
+
+    public SegmentMergeMessage(int dimension, int winner, int loser) {
+        this.dimension = dimension;
+        this.winner = winner;
+        this.loser = loser;
+    }
+
+    @Override
+    public void fromBytes(ByteBuf buf) {
+        this.dimension = buf.readInt();
+        this.winner = buf.readInt();
+        this.loser = buf.readInt();
+    }
+
+    @Override
+    public void toBytes(ByteBuf buf) {
+        buf.writeInt(this.dimension);
+        buf.writeInt(this.winner);
+        buf.writeInt(this.loser);
+    }
+
+}
@@ -0,0 +1,100 @@
+/*
+ * This file is part of Craftorio, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) TechShroom Studios <https://techshoom.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.techshroom.mods.craftorio.network;
+
+import com.techshroom.mods.craftorio.block.LightValue;
+import com.techshroom.mods.craftorio.block.entity.TileEntityRailSignal;
+
+import io.netty.buffer.ByteBuf;
+import net.minecraft.client.Minecraft;
+import net.minecraft.tileentity.TileEntity;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.World;
+import net.minecraftforge.fml.common.network.simpleimpl.IMessage;
+import net.minecraftforge.fml.common.network.simpleimpl.IMessageHandler;
+import net.minecraftforge.fml.common.network.simpleimpl.MessageContext;
+
+/**
+ * Tells clients which light a signal shows now.
+ */
+public class SignalAspectMessage implements IMessage {
+
+    public static final class Handler
+            implements IMessageHandler<SignalAspectMessage, IMessage> {
+
+        @Override
+        public IMessage onMessage(SignalAspectMessage message,
+                MessageContext ctx) {
+            Minecraft mc = Minecraft.getMinecraft();
+            mc.addScheduledTask(() -> {
+                World world = mc.theWorld;
+                if (world == null
+                        || world.provider.getDimension() != message.dimension) {
+                    return;
+                }
+                BlockPos pos = BlockPos.fromLong(message.pos);
+                if (!world.isBlockLoaded(pos)) {
+                    return;
+                }
+                TileEntity te = world.getTileEntity(pos);
+                if (te instanceof TileEntityRailSignal) {
+                    ((TileEntityRailSignal) te)
+                            .setAspectFromServer(message.aspect);
+                }
+            });
+            return null;
+        }
+
+    }
+
+    private int dimension;
+    private long pos;
+    private LightValue aspect;
+
+    // for deserialization
+    public SignalAspectMessage() {
+    }
+
+    public SignalAspectMessage(int dimension, long pos, LightValue aspect) {
+        this.dimension = dimension;
+        this.pos = pos;
+        this.aspect = aspect;
+    }
+
+    @Override
+    public void fromBytes(ByteBuf buf) {
+        this.dimension = buf.readInt();
+        this.pos = buf.readLong();
+        this.aspect = LightValue.values()[buf.readByte()];
+    }
+
+    @Override
+    public void toBytes(ByteBuf buf) {
+        buf.writeInt(this.dimension);
+        buf.writeLong(this.pos);
+        buf.writeByte(this.aspect.ordinal());
+    }
+
+}
@@ -0,0 +1,130 @@
+/*
+ * This file is part of Craftorio, licensed under the MIT License (MIT).
+ * 
+ * Copyright (c) TechShroom Studios <https://techshoom.com>
+ * Copyright (c) contributors
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.techshroom.mods.craftorio.network;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import com.techshroom.mods.craftorio.util.LongHashSet;
+
+/**
+ * The index behind {@link ChunkWatchers}: the players watching each chunk and
+ * the chunks each player watches, per world.
+ * 
+ * @param <W> the world type
+ * @param <P> the player type
+ */
+final class WatchIndex<W, P> {
+
+    private static final long[] NONE = new long[0];
+
+    private static final class Index<P> {
+
+        private final Map<Long, List<P>> chunks = new HashMap<>();
+        private final Map<P, LongHashSet> players = new HashMap<>();
+
+    }
+
+    /**
+     * Weak so worlds that are dropped without an unload event can still be
+     * collected.
+     */
+    private final Map<W, Index<P>> worlds = new WeakHashMap<>();
+
+    void watch(W world, long chunk, P player) {
+        Index<P> index = this.worlds.computeIfAbsent(world, w -> new Index<>());
+        List<P> players =
+                index.chunks.computeIfAbsent(chunk, k -> new ArrayList<>(2));
+        if (!players.contains(player)) {
+            players.add(player);
+        }
+        index.players.computeIfAbsent(player, p -> new LongHashSet())
+                .add(chunk);
+    }
+
+    void unWatch(W world, long chunk, P player) {
+        Index<P> index = this.worlds.get(world);
+        if (index == null) {
+            return;
+        }
+        LongHashSet watched = index.players.get(player);
+        if (watched != null && watched.remove(chunk) && watched.isEmpty()) {
+            index.players.remove(player);
+        }
+        List<P> players = index.chunks.get(chunk);
+        if (players != null && players.remove(player) && players.isEmpty()) {
+            index.chunks.remove(chunk);
+        }
+    }
+
+    /**
+     * Drops {@code player} from every world but {@code keep}, which may be
+     * {@code null} to drop it everywhere.
+     */
+    void forget(P player, W keep) {
+        for (Map.Entry<W, Index<P>> world : this.worlds.entrySet()) {
+            if (world.getKey() == keep) {
+                continue;
+            }
+            Index<P> index = world.getValue();
+            LongHashSet watched = index.players.remove(player);
+            if (watched == null) {
+                continue;
+            }
+            watched.forEach(chunk -> {
+                List<P> players = index.chunks.get(chunk);
+                if (players != null && players.remove(player)
+                        && players.isEmpty()) {
+                    index.chunks.remove(chunk);
+                }
+            });
+        }
+    }
+
+    void removeWorld(W world) {
+        this.worlds.remove(world);
+    }
+
+    List<P> get(W world, long chunk) {
+        Index<P> index = this.worlds.get(world);
+        List<P> players = index == null ? null : index.chunks.get(chunk);
+        return players == null ? Collections.emptyList()
+                : Collections.unmodifiableList(players);
+    }
+
+    /**
+     * Returns the keys of the chunks {@code player} watches in {@code world}.
+     */
+    long[] getWatched(W world, P player) {
+        Index<P> index = this.worlds.get(world);
+        LongHashSet watched = index == null ? null : index.players.get(player);
+        return watched == null ? NONE : watched.toArray();
+    }
+
+}
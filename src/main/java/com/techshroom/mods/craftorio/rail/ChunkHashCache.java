@@ -0,0 +1,155 @@
+/*
+ * This file is part of Craftorio, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) TechShroom Studios <https://techshoom.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.techshroom.mods.craftorio.rail;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import com.techshroom.mods.craftorio.segment.Segment;
+import com.techshroom.mods.craftorio.segment.SegmentRegistry;
+
+import net.minecraft.world.World;
+
+/**
+ * The rail hash of each loaded chunk of a dimension on the server, computed
+ * the first time it is asked for. {@link RailSyncQueue} drops the hash of a
+ * chunk when it drains a change to one of its rails, and unloading the chunk
+ * drops it too.
+ * 
+ * <p>
+ * A merge changes the hash of a chunk without touching its rails, so each
+ * hash also remembers the canonical ids of the segments it saw and is only
+ * used while they still are.
+ * </p>
+ * 
+ * <p>
+ * Main thread only.
+ * </p>
+ */
+final class ChunkHashCache {
+
+    private static final Map<World, ChunkHashCache> caches =
+            new WeakHashMap<>();
+
+    static ChunkHashCache get(World world) {
+        return caches.computeIfAbsent(world,
+                w -> new ChunkHashCache(SegmentRegistry.get(w)));
+    }
+
+    /**
+     * Drops the hash of a chunk in {@code world}, if there is a cache.
+     */
+    static void forget(World world, int chunkX, int chunkZ) {
+        ChunkHashCache cache = caches.get(world);
+        if (cache != null) {
+            cache.hashes.remove(RailHashes.chunkKey(chunkX, chunkZ));
+        }
+    }
+
+    private static final class Entry {
+
+        private final RailChunk rails;
+        private final long hash;
+        /**
+         * The segment ids stored in the chunk, and the canonical ones they
+         * stood for.
+         */
+        private final int[] ids;
+        private final int[] canonical;
+
+        Entry(RailChunk rails, long hash, int[] ids, int[] canonical) {
+            this.rails = rails;
+            this.hash = hash;
+            this.ids = ids;
+            this.canonical = canonical;
+        }
+
+    }
+
+    private final SegmentRegistry registry;
+    private final Map<Long, Entry> hashes = new HashMap<>();
+
+    ChunkHashCache(SegmentRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * Returns the hash of {@code rails}, see
+     * {@link RailHashes#hashChunk(SegmentRegistry, RailChunk)}.
+     */
+    long hash(RailChunk rails) {
+        long key = RailHashes.chunkKey(rails.getChunkX(), rails.getChunkZ());
+        Entry entry = this.hashes.get(key);
+        if (entry != null && entry.rails == rails && isCurrent(entry)) {
+            return entry.hash;
+        }
+        int[] ids = new int[4];
+        int count = 0;
+        for (int i = 0; i < rails.size(); i++) {
+            int id = rails.getSegmentId(i);
+            if (indexOf(ids, count, id) == -1) {
+                if (count == ids.length) {
+                    ids = Arrays.copyOf(ids, count * 2);
+                }
+                ids[count++] = id;
+            }
+        }
+        ids = Arrays.copyOf(ids, count);
+        int[] canonical = new int[count];
+        for (int i = 0; i < count; i++) {
+            canonical[i] = canonicalId(ids[i]);
+        }
+        long hash = RailHashes.hashChunk(this.registry, rails);
+        this.hashes.put(key, new Entry(rails, hash, ids, canonical));
+        return hash;
+    }
+
+    private static int indexOf(int[] array, int length, int value) {
+        for (int i = 0; i < length; i++) {
+            if (array[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private boolean isCurrent(Entry entry) {
+        for (int i = 0; i < entry.ids.length; i++) {
+            if (canonicalId(entry.ids[i]) != entry.canonical[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int canonicalId(int id) {
+        Segment segment =
+                id == RailChunk.NO_SEGMENT ? null : this.registry.get(id);
+        return segment == null ? id : segment.getId();
+    }
+
+}
@@ -0,0 +1,554 @@
+/*
+ * This file is part of Craftorio, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) TechShroom Studios <https://techshoom.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.techshroom.mods.craftorio.rail;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+import com.techshroom.mods.craftorio.CraftorioMod;
+import com.techshroom.mods.craftorio.block.BlockRailSignal;
+import com.techshroom.mods.craftorio.block.CraftorioBlocks;
+import com.techshroom.mods.craftorio.block.entity.TileEntityRailSignal;
+import com.techshroom.mods.craftorio.network.CraftorioNetwork;
+import com.techshroom.mods.craftorio.network.SegmentMergeMessage;
+import com.techshroom.mods.craftorio.segment.Segment;
+import com.techshroom.mods.craftorio.segment.SegmentRegistry;
+import com.techshroom.mods.craftorio.util.ChunkWaitList;
+import com.techshroom.mods.craftorio.util.LongHashSet;
+
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.util.EnumFacing;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.World;
+
+/**
+ * A view of one rail in the {@link RailGraph} of its world. Rails have no tile
+ * entity, their data lives in the chunk they are in (see
+ * {@link RailStorage}). Views are cheap and compare equal by position, get a
+ * new one whenever needed.
+ */
+public final class Rail {
+
+    /**
+     * Rails that couldn't be linked because their chunk wasn't loaded.
+     */
+    private static final ChunkWaitList waiting = new ChunkWaitList();
+
+    /**
+     * Links the rails that were waiting for a chunk to load.
+     */
+    static void updateWaiting(World world, int chunkX, int chunkZ) {
+        LongHashSet positions = waiting.take(world, chunkX, chunkZ);
+        if (positions == null) {
+            return;
+        }
+        positions.forEach(pos -> {
+            Rail rail = at(world, BlockPos.fromLong(pos));
+            if (rail != null) {
+                rail.updateLinks();
+            }
+        });
+    }
+
+    static void forgetWorld(World world) {
+        waiting.clear(world);
+    }
+
+    /**
+     * Returns the rail at {@code pos}, or {@code null} if there is none or it
+     * isn't loaded. Never loads chunks.
+     */
+    public static Rail at(World world, BlockPos pos) {
+        if (!world.isBlockLoaded(pos)) {
+            // we'll get it later!
+            return null;
+        }
+        RailGraph graph = SegmentRegistry.get(world).getGraph();
+        return graph.contains(pos.toLong()) ? new Rail(world, pos) : null;
+    }
+
+    /**
+     * Returns the rail at {@code pos}, adding it to the graph if the block was
+     * just placed.
+     */
+    public static Rail getOrCreate(World world, BlockPos pos) {
+        SegmentRegistry.get(world).getGraph().add(pos.toLong());
+        return new Rail(world, pos);
+    }
+
+    /**
+     * Splits the segment of {@code a} and {@code b} if they are no longer
+     * connected. Only the rails of the smaller side are moved to a new
+     * segment, along with the signals guarding them. Big splits are finished
+     * over the next ticks by the {@link SplitJobQueue}.
+     */
+    public static void splitIfDisconnected(Rail a, Rail b) {
+        Segment segment = a.getSegment();
+        if (segment == null || segment != b.getSegment()) {
+            // already apart
+            return;
+        }
+        SplitJobQueue.submit(a.world, a.key(), b.key());
+    }
+
+    /**
+     * Merges two segments and tells clients about it. Rails of the losing
+     * segment are not touched, they resolve to the winner lazily.
+     */
+    private static Segment merge(World world, Segment a, Segment b) {
+        Segment winner = SegmentRegistry.get(world).union(a, b);
+        Segment loser = winner == a ? b : a;
+        if (winner != loser) {
+            int dimension = world.provider.getDimension();
+            CraftorioNetwork.CHANNEL.sendToDimension(new SegmentMergeMessage(
+                    dimension, winner.getId(), loser.getId()), dimension);
+        }
+        return winner;
+    }
+
+    private final World world;
+    private final BlockPos pos;
+
+    Rail(World world, BlockPos pos) {
+        this.world = world;
+        this.pos = pos.toImmutable();
+    }
+
+    public World getWorld() {
+        return this.world;
+    }
+
+    public BlockPos getPos() {
+        return this.pos;
+    }
+
+    /**
+     * Returns the packed position of this rail.
+     */
+    public long key() {
+        return this.pos.toLong();
+    }
+
+    private RailGraph graph() {
+        return SegmentRegistry.get(this.world).getGraph();
+    }
+
+    /**
+     * Called when the chunk of this rail was loaded. The stored segment and
+     * links are kept unless they disagree with an already loaded neighbor.
+     */
+    void onLoad() {
+        SplitJobQueue.settle(this.world);
+        int segmentId = graph().getSegmentId(key());
+        if (!this.world.isRemote && segmentId != RailChunk.NO_SEGMENT) {
+            SegmentRegistry.get(this.world).adopt(segmentId).loadRail(this);
+        }
+        if (!isConsistentWithLoadedNeighbors()) {
+            updateLinks();
+        }
+    }
+
+    /**
+     * Checks the stored links of a freshly loaded rail against the rails of
+     * other chunks that were loaded before it. Rails of the same chunk were
+     * saved together and are trusted.
+     * 
+     * @return {@code false} if the rail has no segment, a link is one-sided or
+     *         links two segments, in which case the rail must be re-linked
+     */
+    private boolean isConsistentWithLoadedNeighbors() {
+        Segment segment = getSegment();
+        if (segment == null) {
+            return false;
+        }
+        RailGraph graph = graph();
+        long key = key();
+        int links = graph.getLinks(key);
+        int chunkX = this.pos.getX() >> 4;
+        int chunkZ = this.pos.getZ() >> 4;
+        for (int i = 0; i < RailGraph.LINK_BITS; i++) {
+            long other = RailGraph.neighbor(key, i);
+            BlockPos otherPos = BlockPos.fromLong(other);
+            if ((otherPos.getX() >> 4 == chunkX
+                    && otherPos.getZ() >> 4 == chunkZ)
+                    || !graph.contains(other)) {
+                continue;
+            }
+            boolean ours = (links & (1 << i)) != 0;
+            boolean theirs = (graph.getLinks(other)
+                    & (1 << RailGraph.oppositeIndex(i))) != 0;
+            if (ours != theirs) {
+                return false;
+            }
+            if (ours && new Rail(this.world, otherPos)
+                    .getSegment() != segment) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Called when the chunk of this rail is about to unload.
+     */
+    void onUnload() {
+        if (this.world.isRemote) {
+            return;
+        }
+        SplitJobQueue.settle(this.world);
+        waiting.remove(this.world, this.pos);
+        Segment segment = getSegment();
+        if (segment != null) {
+            segment.unloadRail(this);
+        }
+    }
+
+    public void updateLinks() {
+        if (this.world.isRemote) {
+            return;
+        }
+        World world = this.world;
+        SplitJobQueue.settle(world);
+        RailGraph graph = graph();
+        long key = key();
+        if (!world.isBlockLoaded(this.pos)) {
+            graph.setLinks(key, 0);
+            waiting.add(world, this.pos);
+            return;
+        }
+        int previous = graph.getLinks(key);
+        graph.setLinks(key, 0);
+        List<BlockPos> connectedRails =
+                CraftorioBlocks.NORMAL_RAIL.new ConnectionHelper(world, this.pos,
+                        world.getBlockState(this.pos)).getConnectedRails();
+        for (BlockPos pos : connectedRails) {
+            long other = pos.toLong();
+            int index = RailGraph.linkIndex(key, other);
+            if (index == -1 || graph.isBlocked(key, other)) {
+                // We're not supposed to connect here.
+                continue;
+            }
+            Rail rail = at(world, pos);
+            if (rail == null) {
+                // skip it, soft connection
+                continue;
+            }
+            if (!rail.isConnectedTo(this.pos)) {
+                // We're not actually connected to them.
+                continue;
+            }
+            Segment ours = getSegment();
+            Segment theirs = rail.getSegment();
+            boolean joined = ours != theirs;
+            if (theirs == null) {
+                // schedule re-write for later?
+                // idk
+                CraftorioMod.getLogger()
+                        .warn("Rail with null segment as neighbor: " + rail);
+                if (ours != null) {
+                    rail.setSegment(ours);
+                }
+            } else if (ours == null) {
+                setSegment(theirs);
+            } else if (ours != theirs) {
+                setSegment(merge(world, ours, theirs));
+            }
+            // links both ends, so they have us too
+            graph.link(key, other);
+            rail.markDirty();
+            Segment segment = getSegment();
+            if (segment != null && (previous & (1 << index)) == 0) {
+                segment.onLinked(this, rail, joined);
+            }
+        }
+        int dropped = previous & ~graph.getLinks(key);
+        for (int i = 0; i < RailGraph.LINK_BITS; i++) {
+            if ((dropped & (1 << i)) == 0) {
+                continue;
+            }
+            Rail rail =
+                    at(world, BlockPos.fromLong(RailGraph.neighbor(key, i)));
+            if (rail != null && graph.unlink(key, rail.key())) {
+                rail.markDirty();
+                Segment segment = getSegment();
+                if (segment != null) {
+                    segment.onUnlinked(this.pos, rail.pos);
+                }
+            }
+        }
+        if (getSegment() == null) {
+            setSegment(SegmentRegistry.get(world).allocate());
+        }
+        markDirty();
+    }
+
+    /**
+     * Finds the rail next to this one that is on the guarded side of
+     * {@code signal}.
+     */
+    public Rail findRailInSegment(TileEntityRailSignal signal) {
+        World world = this.world;
+        IBlockState realState = world.getBlockState(signal.getPos())
+                .getActualState(world, this.pos);
+        EnumFacing facing = realState.getValue(BlockRailSignal.FACING_PRORERTY);
+        Rail railInSegment = at(world, this.pos.offset(facing.getOpposite()));
+        if (railInSegment == null) {
+            BlockPos offsetPos = this.pos.offset(facing);
+            railInSegment = getConnections().stream()
+                    .filter(rail -> !rail.equals(offsetPos)).findAny()
+                    .map(pos -> at(world, pos)).orElse(null);
+        }
+        return railInSegment;
+    }
+
+    public void onSignalAttached(TileEntityRailSignal signal) {
+        onSignalAttached(signal, findRailInSegment(signal));
+    }
+
+    /**
+     * Attaches {@code signal} to this rail, guarding {@code railInSegment}.
+     */
+    public void onSignalAttached(TileEntityRailSignal signal,
+            Rail railInSegment) {
+        Rail railOutOfSegment = this;
+
+        if (railInSegment == null) {
+            // nothing to guard
+            return;
+        }
+        Segment segment = railInSegment.getSegment();
+        // If the link isn't a bridge this is a loop, and the signal guards an
+        // always-blocked segment.
+        boolean splits = segment != null
+                && segment == railOutOfSegment.getSegment()
+                && graph().isLinked(railInSegment.key(), key())
+                && segment.isBridge(railInSegment, railOutOfSegment);
+        graph().setBlocked(railInSegment.key(), key(), true);
+        graph().setBlocked(key(), railInSegment.key(), true);
+        railInSegment.updateLinks();
+        railOutOfSegment.updateLinks();
+
+        if (splits) {
+            splitIfDisconnected(railInSegment, railOutOfSegment);
+        }
+        Segment guarded = railInSegment.getSegment();
+        if (guarded != null && !guarded.hasSignal(signal)) {
+            guarded.addRailSignal(signal);
+        }
+    }
+
+    public void onSignalDetached(TileEntityRailSignal signal) {
+        onSignalDetached(signal, findRailInSegment(signal));
+    }
+
+    /**
+     * Detaches {@code signal} from this rail, where it guarded
+     * {@code railInSegment}.
+     */
+    public void onSignalDetached(TileEntityRailSignal signal,
+            Rail railInSegment) {
+        Rail railOutOfSegment = this;
+
+        if (railInSegment != null) {
+            graph().setBlocked(railInSegment.key(), key(), false);
+            graph().setBlocked(key(), railInSegment.key(), false);
+            railInSegment.updateLinks();
+            railOutOfSegment.updateLinks();
+
+            Segment in = railInSegment.getSegment();
+            if (in != null) {
+                in.removeRailSignal(signal);
+            }
+            Segment out = railOutOfSegment.getSegment();
+            if (in != null && out != null) {
+                merge(this.world, in, out);
+            }
+        } else {
+            // We don't have a segment there anymore, we might need to update
+            // the blocked links later?
+            // Not going to handle this now.
+            CraftorioMod.getLogger()
+                    .warn("No railSegment to clear blocked links with,"
+                            + " please make an issue and/or PR a fix!");
+        }
+
+    }
+
+    /**
+     * Returns {@code true} if a signal keeps this rail from linking to
+     * {@code other}.
+     */
+    public boolean isBlockedFrom(Rail other) {
+        return graph().isBlocked(key(), other.key());
+    }
+
+    public boolean isConnectedTo(BlockPos pos) {
+        return CraftorioBlocks.NORMAL_RAIL.new ConnectionHelper(this.world,
+                this.pos, this.world.getBlockState(this.pos))
+                        .getConnectedRails().contains(pos)
+                && !graph().isBlocked(key(), pos.toLong());
+    }
+
+    /**
+     * Called when the rail block is broken, releasing this rail from its
+     * segment and splitting the segment if this rail held it together.
+     */
+    public void onBroken() {
+        waiting.remove(this.world, this.pos);
+        if (this.world.isRemote) {
+            graph().remove(key());
+            return;
+        }
+        SplitJobQueue.settle(this.world);
+        List<Rail> neighbors = getLoadedConnections();
+        setSegment(null);
+        graph().remove(key());
+        markDirty();
+        for (Rail neighbor : neighbors) {
+            neighbor.markDirty();
+        }
+        for (int i = 1; i < neighbors.size(); i++) {
+            splitIfDisconnected(neighbors.get(0), neighbors.get(i));
+        }
+    }
+
+    /**
+     * Flags the chunk of this rail for saving. Clients hear about the change
+     * from {@link RailSyncQueue} at the end of the tick.
+     */
+    public void markDirty() {
+        if (this.world.isRemote) {
+            return;
+        }
+        this.world.getChunkFromBlockCoords(this.pos).setChunkModified();
+    }
+
+    public Segment getSegment() {
+        RailGraph graph = graph();
+        int segmentId = graph.getSegmentId(key());
+        if (segmentId == RailChunk.NO_SEGMENT) {
+            return null;
+        }
+        SegmentRegistry registry = SegmentRegistry.get(this.world);
+        Segment segment = registry.get(segmentId);
+        if (segment != null && segment.getId() != segmentId) {
+            // merged away since we last looked, point at the canonical id
+            registry.retain(segment.getId());
+            registry.release(segmentId);
+            graph.setSegmentId(key(), segment.getId());
+            if (!this.world.isRemote) {
+                this.world.getChunkFromBlockCoords(this.pos)
+                        .setChunkModified();
+            }
+        }
+        return segment;
+    }
+
+    void setSegment(Segment segment) {
+        Segment previous = getSegment();
+        RailGraph graph = graph();
+        int segmentId = graph.getSegmentId(key());
+        int id = segment == null ? RailChunk.NO_SEGMENT : segment.getId();
+        if (id == segmentId) {
+            return;
+        }
+        if (previous != null) {
+            previous.unloadRail(this);
+        }
+        if (segment != null) {
+            segment.loadRail(this);
+        }
+        SegmentRegistry registry = SegmentRegistry.get(this.world);
+        if (id != RailChunk.NO_SEGMENT) {
+            registry.retain(id);
+        }
+        if (segmentId != RailChunk.NO_SEGMENT) {
+            registry.release(segmentId);
+        }
+        graph.setSegmentId(key(), id);
+        markDirty();
+    }
+
+    /**
+     * Returns the link mask of this rail, see {@link RailGraph}.
+     */
+    public int getLinks() {
+        return graph().getLinks(key());
+    }
+
+    public Set<BlockPos> getConnections() {
+        Set<BlockPos> connections = new HashSet<>();
+        int mask = getLinks();
+        for (int i = 0; i < RailGraph.LINK_BITS; i++) {
+            if ((mask & (1 << i)) != 0) {
+                connections.add(
+                        BlockPos.fromLong(RailGraph.neighbor(key(), i)));
+            }
+        }
+        return connections;
+    }
+
+    /**
+     * Returns the connected rails that are loaded, without loading any
+     * chunks.
+     */
+    public List<Rail> getLoadedConnections() {
+        List<Rail> rails = new ArrayList<>(2);
+        graph().forEachLoadedLink(key(), pos -> {
+            Rail rail = at(this.world, BlockPos.fromLong(pos));
+            if (rail != null) {
+                rails.add(rail);
+            }
+        });
+        return rails;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof Rail)) {
+            return false;
+        }
+        Rail other = (Rail) obj;
+        return this.world == other.world && this.pos.equals(other.pos);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(System.identityHashCode(this.world), this.pos);
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[segment=" + getSegment()
+                + ",pos=" + this.pos + "]";
+    }
+
+}
@@ -0,0 +1,194 @@
+/*
+ * This file is part of Craftorio, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) TechShroom Studios <https://techshoom.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.techshroom.mods.craftorio.rail;
+
+import java.util.Arrays;
+
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.util.math.BlockPos;
+
+/**
+ * The rails of one chunk, kept in primitive arrays sorted by in-chunk index
+ * ({@code y << 8 | z << 4 | x}). Each rail has its segment id, link mask and
+ * blocked-link mask (see {@link RailGraph}).
+ */
+public final class RailChunk {
+
+    public static final int NO_RAIL = -1;
+    public static final int NO_SEGMENT = -1;
+
+    public static int localIndex(BlockPos pos) {
+        return pos.getY() << 8 | (pos.getZ() & 15) << 4 | (pos.getX() & 15);
+    }
+
+    public static BlockPos fromLocalIndex(int chunkX, int chunkZ, int index) {
+        return new BlockPos(chunkX << 4 | (index & 15), index >>> 8,
+                chunkZ << 4 | (index >>> 4 & 15));
+    }
+
+    private final int chunkX;
+    private final int chunkZ;
+    private char[] indices = new char[8];
+    private int[] segments = new int[8];
+    private short[] links = new short[8];
+    private short[] blocked = new short[8];
+    private int size;
+
+    public RailChunk(int chunkX, int chunkZ) {
+        this.chunkX = chunkX;
+        this.chunkZ = chunkZ;
+    }
+
+    public int getChunkX() {
+        return this.chunkX;
+    }
+
+    public int getChunkZ() {
+        return this.chunkZ;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    /**
+     * Returns the array position of the rail at {@code index}, or
+     * {@link #NO_RAIL}.
+     */
+    public int find(int index) {
+        int i = Arrays.binarySearch(this.indices, 0, this.size, (char) index);
+        return i < 0 ? NO_RAIL : i;
+    }
+
+    /**
+     * Returns the array position of the rail at {@code index}, adding an
+     * unlinked rail without a segment if there is none.
+     */
+    public int add(int index) {
+        int i = Arrays.binarySearch(this.indices, 0, this.size, (char) index);
+        if (i >= 0) {
+            return i;
+        }
+        i = -i - 1;
+        if (this.size == this.indices.length) {
+            int capacity = this.size * 2;
+            this.indices = Arrays.copyOf(this.indices, capacity);
+            this.segments = Arrays.copyOf(this.segments, capacity);
+            this.links = Arrays.copyOf(this.links, capacity);
+            this.blocked = Arrays.copyOf(this.blocked, capacity);
+        }
+        int tail = this.size - i;
+        System.arraycopy(this.indices, i, this.indices, i + 1, tail);
+        System.arraycopy(this.segments, i, this.segments, i + 1, tail);
+        System.arraycopy(this.links, i, this.links, i + 1, tail);
+        System.arraycopy(this.blocked, i, this.blocked, i + 1, tail);
+        this.indices[i] = (char) index;
+        this.segments[i] = NO_SEGMENT;
+        this.links[i] = 0;
+        this.blocked[i] = 0;
+        this.size++;
+        return i;
+    }
+
+    public void remove(int index) {
+        int i = find(index);
+        if (i == NO_RAIL) {
+            return;
+        }
+        int tail = this.size - i - 1;
+        System.arraycopy(this.indices, i + 1, this.indices, i, tail);
+        System.arraycopy(this.segments, i + 1, this.segments, i, tail);
+        System.arraycopy(this.links, i + 1, this.links, i, tail);
+        System.arraycopy(this.blocked, i + 1, this.blocked, i, tail);
+        this.size--;
+    }
+
+    public int getIndex(int i) {
+        return this.indices[i];
+    }
+
+    public long getPos(int i) {
+        return fromLocalIndex(this.chunkX, this.chunkZ, this.indices[i])
+                .toLong();
+    }
+
+    public int getSegmentId(int i) {
+        return this.segments[i];
+    }
+
+    public void setSegmentId(int i, int segmentId) {
+        this.segments[i] = segmentId;
+    }
+
+    public int getLinks(int i) {
+        return this.links[i];
+    }
+
+    public void setLinks(int i, int links) {
+        this.links[i] = (short) links;
+    }
+
+    public int getBlocked(int i) {
+        return this.blocked[i];
+    }
+
+    public void setBlocked(int i, int blocked) {
+        this.blocked[i] = (short) blocked;
+    }
+
+    public NBTTagCompound writeToNBT(NBTTagCompound compound) {
+        int[] positions = new int[this.size];
+        int[] masks = new int[this.size];
+        for (int i = 0; i < this.size; i++) {
+            positions[i] = this.indices[i];
+            masks[i] = (this.links[i] & 0xFFFF) | this.blocked[i] << 16;
+        }
+        compound.setIntArray("positions", positions);
+        compound.setIntArray("masks", masks);
+        compound.setIntArray("segments",
+                Arrays.copyOf(this.segments, this.size));
+        return compound;
+    }
+
+    public static RailChunk readFromNBT(int chunkX, int chunkZ,
+            NBTTagCompound compound) {
+        RailChunk chunk = new RailChunk(chunkX, chunkZ);
+        int[] positions = compound.getIntArray("positions");
+        int[] masks = compound.getIntArray("masks");
+        int[] segments = compound.getIntArray("segments");
+        for (int j = 0; j < positions.length; j++) {
+            int i = chunk.add(positions[j]);
+            chunk.links[i] = (short) masks[j];
+            chunk.blocked[i] = (short) (masks[j] >>> 16);
+            chunk.segments[i] = segments[j];
+        }
+        return chunk;
+    }
+
+}
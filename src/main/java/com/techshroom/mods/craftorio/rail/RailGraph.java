@@ -0,0 +1,411 @@
+/*
+ * This file is part of Craftorio, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) TechShroom Studios <https://techshoom.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.techshroom.mods.craftorio.rail;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.LongConsumer;
+
+import com.techshroom.mods.craftorio.util.LongHashSet;
+import com.techshroom.mods.craftorio.util.LongIntHashMap;
+
+import net.minecraft.util.EnumFacing;
+import net.minecraft.util.math.BlockPos;
+
+/**
+ * The topology of the loaded rails of a world, kept per chunk in
+ * {@link RailChunk}s.
+ * 
+ * <p>
+ * Rails are keyed by {@link BlockPos#toLong() packed position}. Each rail has
+ * two 12 bit masks, one bit per horizontal direction and step (down, level,
+ * up): the rails it links to, and the rails it must not link to because a
+ * signal sits between them. A link bit may point at a rail that is not loaded,
+ * the link is restored when that rail loads.
+ * </p>
+ */
+public final class RailGraph {
+
+    public static final int LINK_BITS = 12;
+    /**
+     * Change flag: the links of a rail changed.
+     */
+    public static final int CHANGED_LINKS = 1;
+    /**
+     * Change flag: the segment id of a rail changed.
+     */
+    public static final int CHANGED_SEGMENT = 2;
+    /**
+     * Change flag: the rail is gone. Never combined with the others.
+     */
+    public static final int CHANGED_REMOVED = 4;
+
+    /**
+     * Returns the bit index of the link from a rail towards {@code facing},
+     * stepping {@code dy} blocks up.
+     */
+    public static int linkIndex(EnumFacing facing, int dy) {
+        return facing.getHorizontalIndex() * 3 + dy + 1;
+    }
+
+    /**
+     * Returns the bit index of the link between two packed positions, or
+     * {@code -1} if rails there can't link.
+     */
+    public static int linkIndex(long from, long to) {
+        BlockPos a = BlockPos.fromLong(from);
+        BlockPos b = BlockPos.fromLong(to);
+        int dx = b.getX() - a.getX();
+        int dy = b.getY() - a.getY();
+        int dz = b.getZ() - a.getZ();
+        if (Math.abs(dy) > 1 || Math.abs(dx) + Math.abs(dz) != 1) {
+            return -1;
+        }
+        for (EnumFacing facing : EnumFacing.HORIZONTALS) {
+            if (facing.getFrontOffsetX() == dx
+                    && facing.getFrontOffsetZ() == dz) {
+                return linkIndex(facing, dy);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the packed position the link {@code index} of {@code pos} leads
+     * to.
+     */
+    public static long neighbor(long pos, int index) {
+        EnumFacing facing = EnumFacing.getHorizontal(index / 3);
+        return BlockPos.fromLong(pos).offset(facing).up(index % 3 - 1)
+                .toLong();
+    }
+
+    /**
+     * Returns the bit index of the same link seen from the other rail.
+     */
+    public static int oppositeIndex(int index) {
+        int facing = index / 3;
+        int step = index % 3;
+        return ((facing + 2) & 3) * 3 + (2 - step);
+    }
+
+    private static long chunkKey(int chunkX, int chunkZ) {
+        return (long) chunkX << 32 | (chunkZ & 0xFFFFFFFFL);
+    }
+
+    private final Map<Long, RailChunk> chunks = new HashMap<>();
+    private int modCount;
+    /**
+     * The change flags of every rail changed since the last
+     * {@link #drainChanges()}, {@code null} unless changes are tracked.
+     */
+    private LongIntHashMap changes;
+    // most lookups hit the chunk of the previous one
+    private long lastKey;
+    private RailChunk lastChunk;
+
+    private RailChunk chunkOf(long pos, boolean create) {
+        BlockPos block = BlockPos.fromLong(pos);
+        int chunkX = block.getX() >> 4;
+        int chunkZ = block.getZ() >> 4;
+        long key = chunkKey(chunkX, chunkZ);
+        if (this.lastChunk != null && this.lastKey == key) {
+            return this.lastChunk;
+        }
+        RailChunk chunk = this.chunks.get(key);
+        if (chunk == null) {
+            if (!create) {
+                return null;
+            }
+            chunk = new RailChunk(chunkX, chunkZ);
+            this.chunks.put(key, chunk);
+        }
+        this.lastKey = key;
+        this.lastChunk = chunk;
+        return chunk;
+    }
+
+    private static int local(long pos) {
+        return RailChunk.localIndex(BlockPos.fromLong(pos));
+    }
+
+    /**
+     * Makes the rails of a chunk part of the graph, replacing any that were
+     * there.
+     */
+    public void loadChunk(RailChunk chunk) {
+        this.modCount++;
+        this.chunks.put(chunkKey(chunk.getChunkX(), chunk.getChunkZ()), chunk);
+        this.lastChunk = null;
+    }
+
+    /**
+     * Takes the rails of a chunk out of the graph, leaving the links of their
+     * neighbors alone.
+     * 
+     * @return the rails, or {@code null} if the chunk had none
+     */
+    public RailChunk unloadChunk(int chunkX, int chunkZ) {
+        this.modCount++;
+        this.lastChunk = null;
+        return this.chunks.remove(chunkKey(chunkX, chunkZ));
+    }
+
+    public RailChunk getChunk(int chunkX, int chunkZ) {
+        return this.chunks.get(chunkKey(chunkX, chunkZ));
+    }
+
+    /**
+     * Returns a number that changes whenever a rail or link is added or
+     * removed.
+     */
+    public int getModCount() {
+        return this.modCount;
+    }
+
+    /**
+     * Starts or stops recording which rails change. Loading or unloading a
+     * chunk is not a change.
+     */
+    public void setTrackingChanges(boolean tracking) {
+        if (!tracking) {
+            this.changes = null;
+        } else if (this.changes == null) {
+            this.changes = new LongIntHashMap(0);
+        }
+    }
+
+    /**
+     * Returns the change flags of every rail changed since the last call, by
+     * packed position, or {@code null} if none changed or changes are not
+     * tracked.
+     */
+    public LongIntHashMap drainChanges() {
+        LongIntHashMap drained = this.changes;
+        if (drained == null || drained.isEmpty()) {
+            return null;
+        }
+        this.changes = new LongIntHashMap(0);
+        return drained;
+    }
+
+    private void recordChange(long pos, int flags) {
+        if (this.changes == null) {
+            return;
+        }
+        if (flags == CHANGED_REMOVED) {
+            this.changes.put(pos, CHANGED_REMOVED);
+        } else {
+            this.changes.put(pos,
+                    this.changes.get(pos) & ~CHANGED_REMOVED | flags);
+        }
+    }
+
+    public Collection<RailChunk> getChunks() {
+        return Collections.unmodifiableCollection(this.chunks.values());
+    }
+
+    public boolean contains(long pos) {
+        RailChunk chunk = chunkOf(pos, false);
+        return chunk != null && chunk.find(local(pos)) != RailChunk.NO_RAIL;
+    }
+
+    /**
+     * Adds an unlinked rail without a segment if there is none at
+     * {@code pos}.
+     */
+    public void add(long pos) {
+        RailChunk chunk = chunkOf(pos, true);
+        if (chunk.find(local(pos)) == RailChunk.NO_RAIL) {
+            chunk.add(local(pos));
+            this.modCount++;
+            recordChange(pos, CHANGED_LINKS | CHANGED_SEGMENT);
+        }
+    }
+
+    /**
+     * Removes a rail that is gone, unlinking it from its loaded neighbors.
+     */
+    public void remove(long pos) {
+        RailChunk chunk = chunkOf(pos, false);
+        if (chunk == null) {
+            return;
+        }
+        int i = chunk.find(local(pos));
+        if (i == RailChunk.NO_RAIL) {
+            return;
+        }
+        int mask = chunk.getLinks(i);
+        chunk.remove(local(pos));
+        this.modCount++;
+        recordChange(pos, CHANGED_REMOVED);
+        for (int bit = 0; bit < LINK_BITS; bit++) {
+            if ((mask & (1 << bit)) != 0) {
+                long other = neighbor(pos, bit);
+                setLinks(other, getLinks(other) & ~(1 << oppositeIndex(bit)),
+                        false);
+            }
+        }
+    }
+
+    public int getLinks(long pos) {
+        RailChunk chunk = chunkOf(pos, false);
+        int i = chunk == null ? RailChunk.NO_RAIL : chunk.find(local(pos));
+        return i == RailChunk.NO_RAIL ? 0 : chunk.getLinks(i);
+    }
+
+    public int getBlocked(long pos) {
+        RailChunk chunk = chunkOf(pos, false);
+        int i = chunk == null ? RailChunk.NO_RAIL : chunk.find(local(pos));
+        return i == RailChunk.NO_RAIL ? 0 : chunk.getBlocked(i);
+    }
+
+    public int getSegmentId(long pos) {
+        RailChunk chunk = chunkOf(pos, false);
+        int i = chunk == null ? RailChunk.NO_RAIL : chunk.find(local(pos));
+        return i == RailChunk.NO_RAIL ? RailChunk.NO_SEGMENT
+                : chunk.getSegmentId(i);
+    }
+
+    public void setSegmentId(long pos, int segmentId) {
+        add(pos);
+        RailChunk chunk = chunkOf(pos, true);
+        int i = chunk.find(local(pos));
+        if (chunk.getSegmentId(i) != segmentId) {
+            chunk.setSegmentId(i, segmentId);
+            recordChange(pos, CHANGED_SEGMENT);
+        }
+    }
+
+    private void setLinks(long pos, int links, boolean create) {
+        RailChunk chunk = chunkOf(pos, create);
+        if (chunk == null) {
+            return;
+        }
+        if (create) {
+            add(pos);
+        }
+        int i = chunk.find(local(pos));
+        if (i != RailChunk.NO_RAIL && chunk.getLinks(i) != links) {
+            chunk.setLinks(i, links);
+            this.modCount++;
+            recordChange(pos, CHANGED_LINKS);
+        }
+    }
+
+    /**
+     * Replaces the links of {@code pos}, without touching its neighbors.
+     */
+    public void setLinks(long pos, int links) {
+        setLinks(pos, links, true);
+    }
+
+    private static int checkedIndex(long a, long b) {
+        int index = linkIndex(a, b);
+        checkArgument(index != -1, "rails at %s and %s can't link",
+                BlockPos.fromLong(a), BlockPos.fromLong(b));
+        return index;
+    }
+
+    public boolean isLinked(long a, long b) {
+        return (getLinks(a) & (1 << checkedIndex(a, b))) != 0;
+    }
+
+    /**
+     * Links {@code a} and {@code b} on whichever ends are loaded.
+     * 
+     * @return {@code true} if {@code a} wasn't linked to {@code b} before
+     */
+    public boolean link(long a, long b) {
+        int index = checkedIndex(a, b);
+        int mask = getLinks(a);
+        boolean changed = contains(a) && (mask & (1 << index)) == 0;
+        setLinks(a, mask | 1 << index, false);
+        setLinks(b, getLinks(b) | 1 << oppositeIndex(index), false);
+        return changed;
+    }
+
+    /**
+     * Unlinks {@code a} and {@code b} on whichever ends are loaded.
+     * 
+     * @return {@code true} if either end was linked
+     */
+    public boolean unlink(long a, long b) {
+        int index = checkedIndex(a, b);
+        int bit = 1 << index;
+        int otherBit = 1 << oppositeIndex(index);
+        int mask = getLinks(a);
+        int otherMask = getLinks(b);
+        setLinks(a, mask & ~bit, false);
+        setLinks(b, otherMask & ~otherBit, false);
+        return (mask & bit) != 0 || (otherMask & otherBit) != 0;
+    }
+
+    public boolean isBlocked(long a, long b) {
+        int index = linkIndex(a, b);
+        return index != -1 && (getBlocked(a) & (1 << index)) != 0;
+    }
+
+    public void setBlocked(long a, long b, boolean blocked) {
+        RailChunk chunk = chunkOf(a, true);
+        int i = chunk.add(local(a));
+        int bit = 1 << checkedIndex(a, b);
+        int mask = chunk.getBlocked(i);
+        chunk.setBlocked(i, blocked ? mask | bit : mask & ~bit);
+    }
+
+    /**
+     * Calls {@code action} with every loaded rail {@code pos} links to.
+     */
+    public void forEachLoadedLink(long pos, LongConsumer action) {
+        int mask = getLinks(pos);
+        for (int i = 0; i < LINK_BITS; i++) {
+            if ((mask & (1 << i)) != 0) {
+                long other = neighbor(pos, i);
+                if (contains(other)) {
+                    action.accept(other);
+                }
+            }
+        }
+    }
+
+    /**
+     * Walks outwards from {@code a} and {@code b} in lockstep over the loaded
+     * rails, stopping as soon as one side runs out.
+     * 
+     * @return the rails of the smaller side, or {@code null} if {@code a} and
+     *         {@code b} are still connected
+     */
+    public LongHashSet findSmallerSide(long a, long b) {
+        SideSearch search = new SideSearch(this, a, b);
+        search.finish();
+        return search.getSmallerSide();
+    }
+
+}
@@ -0,0 +1,133 @@
+/*
+ * This file is part of Craftorio, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) TechShroom Studios <https://techshoom.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.techshroom.mods.craftorio.rail;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import com.techshroom.mods.craftorio.network.CraftorioNetwork;
+import com.techshroom.mods.craftorio.network.RailHashMessage;
+import com.techshroom.mods.craftorio.network.RailHashMessage.Level;
+import com.techshroom.mods.craftorio.segment.SegmentRegistry;
+
+import net.minecraft.client.Minecraft;
+import net.minecraft.world.World;
+import net.minecraftforge.common.MinecraftForge;
+import net.minecraftforge.fml.common.eventhandler.SubscribeEvent;
+import net.minecraftforge.fml.common.gameevent.TickEvent;
+import net.minecraftforge.fml.relauncher.Side;
+import net.minecraftforge.fml.relauncher.SideOnly;
+
+/**
+ * The client side of a rail hash check. Every so often, shortly after joining
+ * a world or changing dimension and after the client stalled, the client
+ * sends the root hash of its rail graph to the server, then answers the
+ * server's questions about the parts that differ (see {@link RailResync}).
+ */
+@SideOnly(Side.CLIENT)
+public final class RailHashCheck {
+
+    private static final int CHECK_INTERVAL = 30 * 20;
+    /**
+     * Give the chunks of a new world some time to arrive first.
+     */
+    private static final int SETTLE_TICKS = 2 * 20;
+    private static final long STALL_NANOS = 2_000_000_000L;
+
+    public static void register() {
+        MinecraftForge.EVENT_BUS.register(new RailHashCheck());
+    }
+
+    private World lastWorld;
+    private long lastTickNanos;
+    private int countdown;
+
+    @SubscribeEvent
+    public void onClientTick(TickEvent.ClientTickEvent event) {
+        if (event.phase != TickEvent.Phase.END) {
+            return;
+        }
+        World world = Minecraft.getMinecraft().theWorld;
+        if (world == null) {
+            this.lastWorld = null;
+            return;
+        }
+        long now = System.nanoTime();
+        if (world != this.lastWorld) {
+            this.lastWorld = world;
+            this.countdown = SETTLE_TICKS;
+        } else if (now - this.lastTickNanos > STALL_NANOS) {
+            this.countdown = Math.min(this.countdown, SETTLE_TICKS);
+        }
+        this.lastTickNanos = now;
+        if (--this.countdown <= 0) {
+            this.countdown = CHECK_INTERVAL;
+            SegmentRegistry registry = SegmentRegistry.get(world);
+            long root = RailHashes.hashRoot(RailHashes.hashRegions(registry,
+                    registry.getGraph().getChunks()));
+            CraftorioNetwork.CHANNEL.sendToServer(RailHashMessage
+                    .root(world.provider.getDimension(), root));
+        }
+    }
+
+    /**
+     * Answers a query from the server.
+     */
+    public static void answer(World world, Level level, long[] scope) {
+        SegmentRegistry registry = SegmentRegistry.get(world);
+        int dimension = world.provider.getDimension();
+        Iterable<RailChunk> chunks = registry.getGraph().getChunks();
+        switch (level) {
+            case REGIONS:
+                CraftorioNetwork.CHANNEL.sendToServer(RailHashMessage.regions(
+                        dimension, RailHashes.hashRegions(registry, chunks)));
+                break;
+            case CHUNKS: {
+                Set<Long> regions = new HashSet<>();
+                for (long region : scope) {
+                    regions.add(region);
+                }
+                Map<Long, Long> hashes = new HashMap<>();
+                for (RailChunk rails : chunks) {
+                    int chunkX = rails.getChunkX();
+                    int chunkZ = rails.getChunkZ();
+                    if (!rails.isEmpty() && regions
+                            .contains(RailHashes.regionKey(chunkX, chunkZ))) {
+                        hashes.put(RailHashes.chunkKey(chunkX, chunkZ),
+                                RailHashes.hashChunk(registry, rails));
+                    }
+                }
+                CraftorioNetwork.CHANNEL.sendToServer(
+                        RailHashMessage.chunks(dimension, scope, hashes));
+                break;
+            }
+            default:
+                break;
+        }
+    }
+
+}
@@ -0,0 +1,133 @@
+/*
+ * This file is part of Craftorio, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) TechShroom Studios <https://techshoom.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.techshroom.mods.craftorio.rail;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.techshroom.mods.craftorio.segment.Segment;
+import com.techshroom.mods.craftorio.segment.SegmentRegistry;
+
+import net.minecraft.util.math.ChunkPos;
+
+/**
+ * Hashes of the rail graph, used to find where a client's copy drifted from
+ * the server's without sending either of them.
+ * 
+ * <p>
+ * Each chunk with rails hashes its rails in index order: in-chunk index,
+ * links and canonical segment id. Chunks are rolled up into regions of
+ * {@code 8x8} chunks and regions into a root. Both roll-ups are sums, so the
+ * order chunks are visited in does not matter. Blocked links are not hashed,
+ * clients never see them.
+ * </p>
+ */
+public final class RailHashes {
+
+    private static final int REGION_SHIFT = 3;
+
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    public static long chunkKey(int chunkX, int chunkZ) {
+        return ChunkPos.chunkXZ2Int(chunkX, chunkZ);
+    }
+
+    public static int chunkX(long chunkKey) {
+        return (int) chunkKey;
+    }
+
+    public static int chunkZ(long chunkKey) {
+        return (int) (chunkKey >>> 32);
+    }
+
+    public static long regionKey(int chunkX, int chunkZ) {
+        return chunkKey(chunkX >> REGION_SHIFT, chunkZ >> REGION_SHIFT);
+    }
+
+    /**
+     * Returns the hash of a chunk's rails, or {@code 0} if it has none.
+     */
+    public static long hashChunk(SegmentRegistry registry, RailChunk rails) {
+        if (rails.isEmpty()) {
+            return 0;
+        }
+        long hash = mix(chunkKey(rails.getChunkX(), rails.getChunkZ()));
+        for (int i = 0; i < rails.size(); i++) {
+            long id = canonicalId(registry, rails.getSegmentId(i));
+            hash = mix(hash + (rails.getIndex(i)
+                    | (long) rails.getLinks(i) << 16
+                    | (id & 0xFFFFFFFFL) << 32));
+        }
+        return hash;
+    }
+
+    private static int canonicalId(SegmentRegistry registry, int id) {
+        Segment segment =
+                id == RailChunk.NO_SEGMENT ? null : registry.get(id);
+        return segment == null ? id : segment.getId();
+    }
+
+    /**
+     * Adds a chunk hash to the hash of its region in {@code regions}.
+     */
+    public static void addToRegion(Map<Long, Long> regions, int chunkX,
+            int chunkZ, long chunkHash) {
+        if (chunkHash != 0) {
+            regions.merge(regionKey(chunkX, chunkZ), chunkHash, Long::sum);
+        }
+    }
+
+    /**
+     * Returns the hashes of the regions of {@code chunks}, by region key.
+     */
+    public static Map<Long, Long> hashRegions(SegmentRegistry registry,
+            Iterable<RailChunk> chunks) {
+        Map<Long, Long> regions = new HashMap<>();
+        for (RailChunk rails : chunks) {
+            addToRegion(regions, rails.getChunkX(), rails.getChunkZ(),
+                    hashChunk(registry, rails));
+        }
+        return regions;
+    }
+
+    /**
+     * Rolls region hashes up into one.
+     */
+    public static long hashRoot(Map<Long, Long> regions) {
+        long root = 0;
+        for (Map.Entry<Long, Long> region : regions.entrySet()) {
+            root += mix(region.getKey() ^ region.getValue());
+        }
+        return root;
+    }
+
+    private RailHashes() {
+    }
+
+}
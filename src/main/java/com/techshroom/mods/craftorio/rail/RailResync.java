@@ -0,0 +1,234 @@
+/*
+ * This file is part of Craftorio, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) TechShroom Studios <https://techshoom.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.techshroom.mods.craftorio.rail;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import com.techshroom.mods.craftorio.network.ChunkWatchers;
+import com.techshroom.mods.craftorio.network.CraftorioNetwork;
+import com.techshroom.mods.craftorio.network.RailHashMessage;
+import com.techshroom.mods.craftorio.network.RailHashMessage.Level;
+import com.techshroom.mods.craftorio.network.RailHashQueryMessage;
+import com.techshroom.mods.craftorio.segment.SegmentRegistry;
+
+import net.minecraft.entity.player.EntityPlayerMP;
+import net.minecraft.world.World;
+
+/**
+ * The server side of a rail hash check. Compares what a client reports with
+ * the hashes of the chunks it watches, walks down to the regions and chunks
+ * that differ and sends those chunks again.
+ * 
+ * <p>
+ * Only the root report may come unasked, and only every
+ * {@value #MIN_INTERVAL} ticks. A region or chunk report is only looked at if
+ * it answers the last query the server sent that player, and only once, so a
+ * client can't make the server hash and resend chunks at will. Chunk hashes
+ * come from a {@link ChunkHashCache}, so a check costs a lookup per watched
+ * chunk plus hashing the chunks that changed since the last one.
+ * </p>
+ */
+public final class RailResync {
+
+    /**
+     * Clients are only allowed to start a check this often, in ticks.
+     */
+    private static final int MIN_INTERVAL = 20;
+
+    private static final class Query {
+
+        private final Level level;
+        private final Set<Long> scope;
+
+        Query(Level level, Set<Long> scope) {
+            this.level = level;
+            this.scope = scope;
+        }
+
+    }
+
+    /**
+     * The world time each player last started a check at.
+     */
+    private static final Map<EntityPlayerMP, Long> lastCheck =
+            new WeakHashMap<>();
+    /**
+     * The query each player has yet to answer.
+     */
+    private static final Map<EntityPlayerMP, Query> queries =
+            new WeakHashMap<>();
+
+    public static void onReport(EntityPlayerMP player,
+            RailHashMessage report) {
+        World world = player.worldObj;
+        if (report.getLevel() == Level.ROOT) {
+            long now = world.getTotalWorldTime();
+            Long last = lastCheck.put(player, now);
+            if ((last != null && now - last < MIN_INTERVAL)
+                    || report.getHashes().length != 1) {
+                return;
+            }
+            // a new check replaces an unanswered one
+            queries.remove(player);
+            Map<Long, Long> regions = hashRegions(world,
+                    watchedChunks(player, null));
+            if (RailHashes.hashRoot(regions) != report.getHashes()[0]) {
+                query(player, Level.REGIONS, new long[0]);
+            }
+            return;
+        }
+        Query asked = queries.get(player);
+        if (asked == null || asked.level != report.getLevel()
+                || !asked.scope.equals(toSet(report.getScope()))) {
+            // not what we asked for
+            return;
+        }
+        queries.remove(player);
+        switch (report.getLevel()) {
+            case REGIONS: {
+                Map<Long, Long> ours = hashRegions(world,
+                        watchedChunks(player, null));
+                Set<Long> differing = differing(ours,
+                        toMap(report.getKeys(), report.getHashes()));
+                if (!differing.isEmpty()) {
+                    query(player, Level.CHUNKS, differing.stream()
+                            .mapToLong(Long::longValue).toArray());
+                }
+                break;
+            }
+            case CHUNKS:
+                resendChunks(player, asked.scope, report);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private static void resendChunks(EntityPlayerMP player, Set<Long> scope,
+            RailHashMessage report) {
+        World world = player.worldObj;
+        ChunkHashCache cache = ChunkHashCache.get(world);
+        Map<Long, RailChunk> chunks = watchedChunks(player, scope);
+        Map<Long, Long> ours = new HashMap<>();
+        chunks.forEach((key, rails) -> ours.put(key, cache.hash(rails)));
+        Map<Long, Long> theirs = toMap(report.getKeys(), report.getHashes());
+        for (long key : differing(ours, theirs)) {
+            int chunkX = RailHashes.chunkX(key);
+            int chunkZ = RailHashes.chunkZ(key);
+            if (!scope.contains(RailHashes.regionKey(chunkX, chunkZ))
+                    || !ChunkWatchers.get(world, chunkX, chunkZ)
+                            .contains(player)) {
+                // not ours to fix, the client will drop it soon anyway
+                continue;
+            }
+            RailChunk rails = chunks.get(key);
+            // an empty chunk clears rails the client should not have
+            RailStorage.sendChunk(player,
+                    rails == null ? new RailChunk(chunkX, chunkZ) : rails);
+        }
+    }
+
+    /**
+     * Returns the rail chunks with rails that {@code player} watches by chunk
+     * key, only those in the {@code regions} if that is not {@code null}.
+     */
+    private static Map<Long, RailChunk> watchedChunks(EntityPlayerMP player,
+            Set<Long> regions) {
+        RailGraph graph = SegmentRegistry.get(player.worldObj).getGraph();
+        Map<Long, RailChunk> watched = new HashMap<>();
+        for (long key : ChunkWatchers.getWatched(player)) {
+            int chunkX = RailHashes.chunkX(key);
+            int chunkZ = RailHashes.chunkZ(key);
+            if (regions != null && !regions
+                    .contains(RailHashes.regionKey(chunkX, chunkZ))) {
+                continue;
+            }
+            RailChunk rails = graph.getChunk(chunkX, chunkZ);
+            if (rails != null && !rails.isEmpty()) {
+                watched.put(key, rails);
+            }
+        }
+        return watched;
+    }
+
+    private static Map<Long, Long> hashRegions(World world,
+            Map<Long, RailChunk> chunks) {
+        ChunkHashCache cache = ChunkHashCache.get(world);
+        Map<Long, Long> regions = new HashMap<>();
+        for (RailChunk rails : chunks.values()) {
+            RailHashes.addToRegion(regions, rails.getChunkX(),
+                    rails.getChunkZ(), cache.hash(rails));
+        }
+        return regions;
+    }
+
+    private static Set<Long> toSet(long[] keys) {
+        Set<Long> set = new HashSet<>();
+        for (long key : keys) {
+            set.add(key);
+        }
+        return set;
+    }
+
+    private static Map<Long, Long> toMap(long[] keys, long[] hashes) {
+        Map<Long, Long> map = new HashMap<>();
+        for (int i = 0; i < Math.min(keys.length, hashes.length); i++) {
+            map.put(keys[i], hashes[i]);
+        }
+        return map;
+    }
+
+    private static Set<Long> differing(Map<Long, Long> ours,
+            Map<Long, Long> theirs) {
+        Set<Long> keys = new HashSet<>();
+        ours.forEach((key, hash) -> {
+            if (!hash.equals(theirs.get(key))) {
+                keys.add(key);
+            }
+        });
+        theirs.forEach((key, hash) -> {
+            if (!ours.containsKey(key)) {
+                keys.add(key);
+            }
+        });
+        return keys;
+    }
+
+    private static void query(EntityPlayerMP player, Level level,
+            long[] scope) {
+        queries.put(player, new Query(level, toSet(scope)));
+        CraftorioNetwork.CHANNEL.sendTo(new RailHashQueryMessage(
+                player.worldObj.provider.getDimension(), level, scope),
+                player);
+    }
+
+    private RailResync() {
+    }
+
+}
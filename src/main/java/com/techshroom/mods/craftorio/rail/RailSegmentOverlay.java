@@ -22,90 +22,49 @@
  * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
  * THE SOFTWARE.
  */
-package com.techshroom.mods.craftorio.block.entity;
+package com.techshroom.mods.craftorio.rail;
 
-import java.awt.Color;
-import java.math.BigInteger;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.util.Optional;
+import org.lwjgl.opengl.GL11;
 
-import com.google.common.base.Throwables;
 import com.techshroom.mods.craftorio.segment.Segment;
-import com.techshroom.mods.craftorio.util.GeneralUtility;
+import com.techshroom.mods.craftorio.segment.SegmentPalette;
+import com.techshroom.mods.craftorio.segment.SegmentRegistry;
 
 import net.minecraft.client.Minecraft;
+import net.minecraft.client.renderer.Tessellator;
 import net.minecraft.client.renderer.VertexBuffer;
 import net.minecraft.client.renderer.texture.TextureAtlasSprite;
 import net.minecraft.client.renderer.texture.TextureMap;
+import net.minecraft.client.renderer.vertex.DefaultVertexFormats;
+import net.minecraft.entity.Entity;
 import net.minecraft.util.EnumFacing;
 import net.minecraft.util.EnumFacing.Axis;
 import net.minecraft.util.EnumFacing.AxisDirection;
 import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.MathHelper;
+import net.minecraft.world.World;
+import net.minecraftforge.client.event.RenderWorldLastEvent;
 import net.minecraftforge.client.event.TextureStitchEvent;
-import net.minecraftforge.client.model.animation.FastTESR;
 import net.minecraftforge.common.MinecraftForge;
 import net.minecraftforge.fml.common.eventhandler.SubscribeEvent;
+import net.minecraftforge.fml.relauncher.Side;
+import net.minecraftforge.fml.relauncher.SideOnly;
 
-public class TESRRailSegmentDisplay extends FastTESR<TileEntityAutoRailBase> {
+/**
+ * Draws the segment of every loaded rail over the world, coloured by segment
+ * id.
+ */
+@SideOnly(Side.CLIENT)
+public class RailSegmentOverlay {
 
-    {
-        MinecraftForge.EVENT_BUS.register(this);
+    public static void register() {
+        MinecraftForge.EVENT_BUS.register(new RailSegmentOverlay());
     }
 
-    private final MessageDigest md5;
-    {
-        try {
-            this.md5 = MessageDigest.getInstance("md5");
-        } catch (NoSuchAlgorithmException e) {
-            throw Throwables.propagate(e);
-        }
-    }
+    private static final int RENDER_RADIUS = 64;
 
     private TextureAtlasSprite whiteness;
 
-    // Algorithm from Textual IRC Client.
-    // License in LICENSE-textual.txt
-    private int[] notRandomColorShift(int id) {
-        int stringHash32 = Math.abs(new BigInteger(1,
-                this.md5.digest(GeneralUtility.intToBytes(id))).intValue());
-        int shash = stringHash32 >> 1;
-        int lhash = stringHash32 >> 2;
-
-        int h = (stringHash32 % 360);
-
-        int s;
-        int l;
-
-        s = (shash % 50 + 35); // 35 - 85
-        l = (lhash % 38 + 20); // 20 - 58
-
-        // Lower lightness for Yello, Green, Cyan
-        if (h > 45 && h <= 195) {
-            l = (lhash % 21 + 20); // 20 - 41
-
-            if (l > 31) {
-                s = (shash % 40 + 55); // 55 - 95
-            } else {
-                s = (shash % 35 + 65); // 65 - 95
-            }
-        }
-
-        // Give the reds a bit more saturation
-        if (h <= 25 || h >= 335) {
-            s = (shash % 33 + 45); // 45 - 78
-        }
-
-        // Increase lightness for brighter colors...
-        l += 15;
-        l = Math.min(100, l);
-        // SATUREATE
-        s += 200;
-        s = Math.min(360, s);
-
-        return new int[] { h, s, l };
-    }
-
     @SubscribeEvent
     public void onReload(TextureStitchEvent.Post postStitch) {
         TextureMap textureMapBlocks =
@@ -115,38 +74,67 @@ public class TESRRailSegmentDisplay extends FastTESR<TileEntityAutoRailBase> {
         }
     }
 
-    @Override
-    public void renderTileEntityFast(TileEntityAutoRailBase te, double x,
-            double y, double z, float partialTicks, int destroyStage,
-            VertexBuffer vb) {
+    @SubscribeEvent
+    public void onRenderWorldLast(RenderWorldLastEvent event) {
         if (this.whiteness == null) {
             throw new IllegalStateException("how can i be white");
         }
-        vb.setTranslation(x - te.getPos().getX(), y - te.getPos().getY(),
-                z - te.getPos().getZ());
-        int id = Optional.ofNullable(te.getSegment()).map(Segment::getId)
-                .orElse(Integer.MIN_VALUE);
-        int[] hsl = notRandomColorShift(id);
-        Color segColor = GeneralUtility.hslToColor(hsl[0], hsl[1], hsl[2]);
-        Color lighter =
-                GeneralUtility.hslToColor(hsl[0] + 10, hsl[1], hsl[2] - 5);
-        Color connector =
-                GeneralUtility.hslToColor(hsl[0] - 10, hsl[1], hsl[2] + 5);
-
-        drawFlatTop(te, vb, segColor, 4 / 16.0, 4 / 16.0);
-        drawFlatTop(te, vb, lighter, 6 / 16.0, 6 / 16.0);
-
-        for (BlockPos conn : te.getConnections()) {
-            for (EnumFacing facing : EnumFacing.HORIZONTALS) {
-                if (te.getPos().offset(facing).equals(conn)) {
-                    drawConnector(vb, te.getPos(), facing, connector);
-                }
+        Minecraft mc = Minecraft.getMinecraft();
+        World world = mc.theWorld;
+        Entity view = mc.getRenderViewEntity();
+        if (world == null || view == null) {
+            return;
+        }
+        SegmentRegistry registry = SegmentRegistry.get(world);
+        float partialTicks = event.getPartialTicks();
+        double camX = view.lastTickPosX
+                + (view.posX - view.lastTickPosX) * partialTicks;
+        double camY = view.lastTickPosY
+                + (view.posY - view.lastTickPosY) * partialTicks;
+        double camZ = view.lastTickPosZ
+                + (view.posZ - view.lastTickPosZ) * partialTicks;
+        int viewChunkX = MathHelper.floor_double(camX) >> 4;
+        int viewChunkZ = MathHelper.floor_double(camZ) >> 4;
+        int chunkRadius = RENDER_RADIUS >> 4;
+
+        mc.getTextureManager().bindTexture(TextureMap.LOCATION_BLOCKS_TEXTURE);
+        Tessellator tessellator = Tessellator.getInstance();
+        VertexBuffer vb = tessellator.getBuffer();
+        vb.begin(GL11.GL_QUADS, DefaultVertexFormats.BLOCK);
+        vb.setTranslation(-camX, -camY, -camZ);
+        for (RailChunk chunk : registry.getGraph().getChunks()) {
+            if (Math.abs(chunk.getChunkX() - viewChunkX) > chunkRadius
+                    || Math.abs(chunk.getChunkZ() - viewChunkZ) > chunkRadius) {
+                continue;
+            }
+            for (int i = 0; i < chunk.size(); i++) {
+                BlockPos pos = BlockPos.fromLong(chunk.getPos(i));
+                Segment segment = registry.get(chunk.getSegmentId(i));
+                int id = segment == null ? Integer.MIN_VALUE : segment.getId();
+                drawRail(vb, pos, id, chunk.getLinks(i));
+            }
+        }
+        vb.setTranslation(0, 0, 0);
+        tessellator.draw();
+    }
+
+    private void drawRail(VertexBuffer vb, BlockPos pos, int id, int links) {
+        int segColor = SegmentPalette.getColor(id, SegmentPalette.BASE);
+        int lighter = SegmentPalette.getColor(id, SegmentPalette.LIGHTER);
+        int connector = SegmentPalette.getColor(id, SegmentPalette.CONNECTOR);
+
+        drawFlatTop(pos, vb, segColor, 4 / 16.0, 4 / 16.0);
+        drawFlatTop(pos, vb, lighter, 6 / 16.0, 6 / 16.0);
+
+        for (EnumFacing facing : EnumFacing.HORIZONTALS) {
+            if ((links & (1 << RailGraph.linkIndex(facing, 0))) != 0) {
+                drawConnector(vb, pos, facing, connector);
             }
         }
     }
 
     private void drawConnector(VertexBuffer vb, BlockPos pos, EnumFacing travel,
-            Color a) {
+            int a) {
         final double width = 1 / 16.0;
         final double notWidth = 8 / 16.0 - width;
         TextureAtlasSprite w = this.whiteness;
@@ -186,20 +174,20 @@ public class TESRRailSegmentDisplay extends FastTESR<TileEntityAutoRailBase> {
         }
     }
 
-    private void drawFlatTop(TileEntityAutoRailBase te, VertexBuffer vb,
-            Color color, double shrink, double yoff) {
-        double xv1 = te.getPos().getX() + shrink;
-        double xv2 = te.getPos().getX() + 1 - shrink;
-        double zv1 = te.getPos().getZ() + shrink;
-        double zv2 = te.getPos().getZ() + 1 - shrink;
-        double yv1 = te.getPos().getY() + yoff;
+    private void drawFlatTop(BlockPos pos, VertexBuffer vb, int color,
+            double shrink, double yoff) {
+        double xv1 = pos.getX() + shrink;
+        double xv2 = pos.getX() + 1 - shrink;
+        double zv1 = pos.getZ() + shrink;
+        double zv2 = pos.getZ() + 1 - shrink;
+        double yv1 = pos.getY() + yoff;
         TextureAtlasSprite w = this.whiteness;
         box(vb, xv1, yv1, zv1, xv2, yv1 - 1.5 / 16.0, zv2, color, w.getMinU(),
                 w.getMinV(), w.getMaxU(), w.getMaxV());
     }
 
     private void box(VertexBuffer vb, double x1, double y1, double z1,
-            double x2, double y2, double z2, Color color, double u1, double v1,
+            double x2, double y2, double z2, int color, double u1, double v1,
             double u2, double v2) {
 
         // Top
@@ -240,11 +228,11 @@ public class TESRRailSegmentDisplay extends FastTESR<TileEntityAutoRailBase> {
     }
 
     private void vertex(VertexBuffer vb, double x, double y, double z,
-            Color color, double u, double v) {
-        int r = color.getRed();
-        int g = color.getGreen();
-        int b = color.getBlue();
-        int a = color.getAlpha();
+            int color, double u, double v) {
+        int a = color >>> 24;
+        int r = color >> 16 & 0xFF;
+        int g = color >> 8 & 0xFF;
+        int b = color & 0xFF;
         vb.pos(x, y, z).color(r, g, b, a).tex(u, v).lightmap(240, 240)
                 .endVertex();
     }
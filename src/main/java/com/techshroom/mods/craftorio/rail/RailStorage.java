@@ -0,0 +1,300 @@
+/*
+ * This file is part of Craftorio, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) TechShroom Studios <https://techshoom.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.techshroom.mods.craftorio.rail;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.techshroom.mods.craftorio.Constants;
+import com.techshroom.mods.craftorio.network.CraftorioNetwork;
+import com.techshroom.mods.craftorio.network.RailChunkMessage;
+import com.techshroom.mods.craftorio.segment.Segment;
+import com.techshroom.mods.craftorio.segment.SegmentRegistry;
+import com.techshroom.mods.craftorio.util.GeneralUtility;
+
+import net.minecraft.entity.player.EntityPlayerMP;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagList;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.world.World;
+import net.minecraft.world.chunk.Chunk;
+import net.minecraftforge.common.MinecraftForge;
+import net.minecraftforge.common.util.Constants.NBT;
+import net.minecraftforge.event.world.ChunkDataEvent;
+import net.minecraftforge.event.world.ChunkEvent;
+import net.minecraftforge.event.world.ChunkWatchEvent;
+import net.minecraftforge.event.world.WorldEvent;
+import net.minecraftforge.fml.common.eventhandler.SubscribeEvent;
+
+/**
+ * Saves and loads the {@link RailChunk} of every chunk along with the chunk
+ * itself, and sends it to players that start watching the chunk.
+ */
+public final class RailStorage {
+
+    private static final String TAG = Constants.MOD_ID + ":rails";
+    /**
+     * Rails used to be tile entities registered under this id.
+     */
+    private static final String LEGACY_TILE_ID = "normal_rail";
+
+    private static final class Hooks {
+
+        @SubscribeEvent
+        public void onChunkDataLoad(ChunkDataEvent.Load event) {
+            // may run on the chunk IO thread, attached in onChunkLoad
+            Chunk chunk = event.getChunk();
+            RailChunk rails = readChunk(chunk, event.getData());
+            if (rails != null) {
+                pending.put(chunk, rails);
+            }
+        }
+
+        @SubscribeEvent
+        public void onChunkLoad(ChunkEvent.Load event) {
+            World world = event.getWorld();
+            Chunk chunk = event.getChunk();
+            RailChunk rails = pending.remove(chunk);
+            if (rails != null && !world.isRemote) {
+                SegmentRegistry registry = SegmentRegistry.get(world);
+                if (assignSegments(registry, rails)) {
+                    chunk.setChunkModified();
+                }
+                registry.getGraph().loadChunk(rails);
+                for (int i = 0; i < rails.size(); i++) {
+                    new Rail(world, BlockPos.fromLong(rails.getPos(i)))
+                            .onLoad();
+                }
+            }
+            Rail.updateWaiting(world, chunk.xPosition, chunk.zPosition);
+        }
+
+        @SubscribeEvent
+        public void onChunkUnload(ChunkEvent.Unload event) {
+            World world = event.getWorld();
+            Chunk chunk = event.getChunk();
+            RailGraph graph = SegmentRegistry.get(world).getGraph();
+            RailChunk rails = graph.getChunk(chunk.xPosition, chunk.zPosition);
+            if (rails == null) {
+                return;
+            }
+            for (int i = 0; i < rails.size(); i++) {
+                new Rail(world, BlockPos.fromLong(rails.getPos(i))).onUnload();
+            }
+            graph.unloadChunk(chunk.xPosition, chunk.zPosition);
+            if (!world.isRemote) {
+                ChunkHashCache.forget(world, chunk.xPosition, chunk.zPosition);
+                // the chunk is saved after this
+                unloading.put(chunk, rails);
+            }
+        }
+
+        @SubscribeEvent
+        public void onChunkDataSave(ChunkDataEvent.Save event) {
+            World world = event.getWorld();
+            Chunk chunk = event.getChunk();
+            RailChunk rails = SegmentRegistry.get(world).getGraph()
+                    .getChunk(chunk.xPosition, chunk.zPosition);
+            if (rails == null) {
+                rails = chunk.isLoaded() ? unloading.get(chunk)
+                        : unloading.remove(chunk);
+            }
+            if (rails == null || rails.isEmpty()) {
+                return;
+            }
+            canonicalize(SegmentRegistry.get(world), rails);
+            event.getData().setTag(TAG,
+                    rails.writeToNBT(new NBTTagCompound()));
+        }
+
+        @SubscribeEvent
+        public void onChunkWatch(ChunkWatchEvent.Watch event) {
+            World world = event.getPlayer().worldObj;
+            ChunkPos pos = event.getChunk();
+            RailChunk rails = SegmentRegistry.get(world).getGraph()
+                    .getChunk(pos.chunkXPos, pos.chunkZPos);
+            if (rails == null || rails.isEmpty()) {
+                return;
+            }
+            sendChunk(event.getPlayer(), rails);
+        }
+
+        @SubscribeEvent
+        public void onWorldUnload(WorldEvent.Unload event) {
+            World world = event.getWorld();
+            pending.keySet().removeIf(chunk -> chunk.getWorld() == world);
+            unloading.keySet().removeIf(chunk -> chunk.getWorld() == world);
+            Rail.forgetWorld(world);
+        }
+
+    }
+
+    public static void addHooks() {
+        MinecraftForge.EVENT_BUS.register(new Hooks());
+    }
+
+    private static final Map<Chunk, RailChunk> pending =
+            new ConcurrentHashMap<>();
+    private static final Map<Chunk, RailChunk> unloading =
+            new ConcurrentHashMap<>();
+
+    private static RailChunk readChunk(Chunk chunk, NBTTagCompound data) {
+        if (data.hasKey(TAG)) {
+            return RailChunk.readFromNBT(chunk.xPosition, chunk.zPosition,
+                    data.getCompoundTag(TAG));
+        }
+        return readLegacyTiles(chunk, data.getCompoundTag("Level")
+                .getTagList("TileEntities", NBT.TAG_COMPOUND));
+    }
+
+    /**
+     * Moves the data of rail tile entities from older saves into a
+     * {@link RailChunk}, dropping the tile entities. Their segment ids are
+     * dropped too, no registry counts the rails storing them.
+     */
+    private static RailChunk readLegacyTiles(Chunk chunk, NBTTagList tiles) {
+        RailChunk rails = null;
+        for (int j = tiles.tagCount() - 1; j >= 0; j--) {
+            NBTTagCompound tile = tiles.getCompoundTagAt(j);
+            if (!LEGACY_TILE_ID.equals(tile.getString("id"))) {
+                continue;
+            }
+            tiles.removeTag(j);
+            if (rails == null) {
+                rails = new RailChunk(chunk.xPosition, chunk.zPosition);
+            }
+            BlockPos pos = new BlockPos(tile.getInteger("x"),
+                    tile.getInteger("y"), tile.getInteger("z"));
+            int i = rails.add(RailChunk.localIndex(pos));
+            if (tile.hasKey("links")) {
+                rails.setLinks(i, tile.getInteger("links"));
+                rails.setBlocked(i, tile.getInteger("blocked"));
+            } else {
+                rails.setLinks(i, readLegacyMask(pos, tile, "connections"));
+                rails.setBlocked(i,
+                        readLegacyMask(pos, tile, "antiConnections"));
+            }
+        }
+        return rails;
+    }
+
+    private static int readLegacyMask(BlockPos pos, NBTTagCompound tile,
+            String key) {
+        NBTTagList data = tile.getTagList(key, NBT.TAG_INT_ARRAY);
+        int mask = 0;
+        for (int i = 0; i < data.tagCount(); i++) {
+            int index = RailGraph.linkIndex(pos.toLong(),
+                    GeneralUtility.blockPosData(data.get(i)).toLong());
+            if (index != -1) {
+                mask |= 1 << index;
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * Sends all rails of a chunk to {@code player}, replacing what its client
+     * had for that chunk.
+     */
+    public static void sendChunk(EntityPlayerMP player, RailChunk rails) {
+        World world = player.worldObj;
+        canonicalize(SegmentRegistry.get(world), rails);
+        CraftorioNetwork.CHANNEL.sendTo(
+                new RailChunkMessage(world.provider.getDimension(), rails),
+                player);
+    }
+
+    /**
+     * Gives each linked group of rails without a segment, such as converted
+     * legacy rails, a fresh segment of its own. Groups spanning chunks are
+     * merged as their rails are loaded.
+     * 
+     * @return {@code true} if any rail was assigned
+     */
+    private static boolean assignSegments(SegmentRegistry registry,
+            RailChunk rails) {
+        boolean assigned = false;
+        int[] stack = new int[rails.size()];
+        for (int start = 0; start < rails.size(); start++) {
+            if (rails.getSegmentId(start) != RailChunk.NO_SEGMENT) {
+                continue;
+            }
+            int id = registry.allocate().getId();
+            rails.setSegmentId(start, id);
+            int top = 0;
+            stack[top++] = start;
+            while (top > 0) {
+                int i = stack[--top];
+                registry.retain(id);
+                long pos = rails.getPos(i);
+                int links = rails.getLinks(i);
+                for (int bit = 0; bit < RailGraph.LINK_BITS; bit++) {
+                    if ((links & (1 << bit)) == 0) {
+                        continue;
+                    }
+                    BlockPos other =
+                            BlockPos.fromLong(RailGraph.neighbor(pos, bit));
+                    if (other.getX() >> 4 != rails.getChunkX()
+                            || other.getZ() >> 4 != rails.getChunkZ()) {
+                        continue;
+                    }
+                    int j = rails.find(RailChunk.localIndex(other));
+                    if (j != RailChunk.NO_RAIL && rails
+                            .getSegmentId(j) == RailChunk.NO_SEGMENT) {
+                        rails.setSegmentId(j, id);
+                        stack[top++] = j;
+                    }
+                }
+            }
+            assigned = true;
+        }
+        return assigned;
+    }
+
+    /**
+     * Re-points rails storing the id of a merged-away segment at the surviving
+     * one, so only canonical ids are saved or sent.
+     */
+    private static void canonicalize(SegmentRegistry registry,
+            RailChunk rails) {
+        for (int i = 0; i < rails.size(); i++) {
+            int id = rails.getSegmentId(i);
+            if (id == RailChunk.NO_SEGMENT) {
+                continue;
+            }
+            Segment segment = registry.get(id);
+            if (segment != null && segment.getId() != id) {
+                registry.retain(segment.getId());
+                registry.release(id);
+                rails.setSegmentId(i, segment.getId());
+            }
+        }
+    }
+
+    private RailStorage() {
+    }
+
+}
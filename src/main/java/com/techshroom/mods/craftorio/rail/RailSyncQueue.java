@@ -0,0 +1,128 @@
+/*
+ * This file is part of Craftorio, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) TechShroom Studios <https://techshoom.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.techshroom.mods.craftorio.rail;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.techshroom.mods.craftorio.network.ChunkWatchers;
+import com.techshroom.mods.craftorio.network.CraftorioNetwork;
+import com.techshroom.mods.craftorio.network.RailDeltaMessage;
+import com.techshroom.mods.craftorio.network.RailDeltaMessage.ChunkDelta;
+import com.techshroom.mods.craftorio.segment.Segment;
+import com.techshroom.mods.craftorio.segment.SegmentRegistry;
+import com.techshroom.mods.craftorio.util.LongIntHashMap;
+
+import net.minecraft.entity.player.EntityPlayerMP;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.world.World;
+import net.minecraftforge.common.MinecraftForge;
+import net.minecraftforge.fml.common.eventhandler.EventPriority;
+import net.minecraftforge.fml.common.eventhandler.SubscribeEvent;
+import net.minecraftforge.fml.common.gameevent.TickEvent;
+
+/**
+ * Sends the rails that changed during a tick to the players watching their
+ * chunks once the tick is over. However often a rail was touched, it is sent
+ * once, with only the parts that changed, and each player gets everything in
+ * one message.
+ */
+public final class RailSyncQueue {
+
+    private static final class Hooks {
+
+        // after everything else that may change rails this tick
+        @SubscribeEvent(priority = EventPriority.LOWEST)
+        public void onWorldTick(TickEvent.WorldTickEvent event) {
+            if (event.phase == TickEvent.Phase.END
+                    && !event.world.isRemote) {
+                flush(event.world);
+            }
+        }
+
+    }
+
+    public static void addHooks() {
+        MinecraftForge.EVENT_BUS.register(new Hooks());
+    }
+
+    private static void flush(World world) {
+        SegmentRegistry registry = SegmentRegistry.get(world);
+        RailGraph graph = registry.getGraph();
+        LongIntHashMap changes = graph.drainChanges();
+        if (changes == null) {
+            return;
+        }
+        Map<Long, ChunkDelta> deltas = new HashMap<>();
+        changes.forEachKey(pos -> {
+            BlockPos block = BlockPos.fromLong(pos);
+            int chunkX = block.getX() >> 4;
+            int chunkZ = block.getZ() >> 4;
+            ChunkHashCache.forget(world, chunkX, chunkZ);
+            if (graph.getChunk(chunkX, chunkZ) == null) {
+                // unloaded since, nobody is watching it
+                return;
+            }
+            ChunkDelta delta = deltas.computeIfAbsent(
+                    ChunkPos.chunkXZ2Int(chunkX, chunkZ),
+                    k -> new ChunkDelta(chunkX, chunkZ));
+            int index = RailChunk.localIndex(block);
+            int flags = changes.get(pos);
+            if (!graph.contains(pos)) {
+                delta.add(index, RailGraph.CHANGED_REMOVED, 0,
+                        RailChunk.NO_SEGMENT);
+                return;
+            }
+            delta.add(index, flags & ~RailGraph.CHANGED_REMOVED,
+                    graph.getLinks(pos),
+                    canonicalId(registry, graph.getSegmentId(pos)));
+        });
+        Map<EntityPlayerMP, List<ChunkDelta>> byPlayer = new HashMap<>();
+        for (ChunkDelta delta : deltas.values()) {
+            for (EntityPlayerMP player : ChunkWatchers.get(world,
+                    delta.getChunkX(), delta.getChunkZ())) {
+                byPlayer.computeIfAbsent(player, p -> new ArrayList<>())
+                        .add(delta);
+            }
+        }
+        int dimension = world.provider.getDimension();
+        byPlayer.forEach((player, chunks) -> CraftorioNetwork.CHANNEL
+                .sendTo(new RailDeltaMessage(dimension, chunks), player));
+    }
+
+    private static int canonicalId(SegmentRegistry registry, int id) {
+        // only ever sync the canonical id
+        Segment segment =
+                id == RailChunk.NO_SEGMENT ? null : registry.get(id);
+        return segment == null ? RailChunk.NO_SEGMENT : segment.getId();
+    }
+
+    private RailSyncQueue() {
+    }
+
+}
@@ -0,0 +1,99 @@
+/*
+ * This file is part of Craftorio, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) TechShroom Studios <https://techshoom.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.techshroom.mods.craftorio.rail;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import com.techshroom.mods.craftorio.util.LongHashSet;
+
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.World;
+import net.minecraftforge.common.MinecraftForge;
+import net.minecraftforge.event.world.WorldEvent;
+import net.minecraftforge.fml.common.eventhandler.SubscribeEvent;
+import net.minecraftforge.fml.common.gameevent.TickEvent;
+
+/**
+ * Collects the rails that need their links recomputed and does it once at the
+ * end of the world tick, so a rail that hears from several neighbors in one
+ * tick is only re-linked once.
+ */
+public final class RailUpdateQueue {
+
+    private static final class Hooks {
+
+        @SubscribeEvent
+        public void onWorldTick(TickEvent.WorldTickEvent event) {
+            if (event.phase == TickEvent.Phase.END
+                    && !event.world.isRemote) {
+                drain(event.world);
+            }
+        }
+
+        @SubscribeEvent
+        public void onWorldUnload(WorldEvent.Unload event) {
+            if (!event.getWorld().isRemote) {
+                queues.remove(event.getWorld());
+            }
+        }
+
+    }
+
+    public static void addHooks() {
+        MinecraftForge.EVENT_BUS.register(new Hooks());
+    }
+
+    /**
+     * Weak so worlds that are dropped without an unload event can still be
+     * collected.
+     */
+    private static final Map<World, LongHashSet> queues = new WeakHashMap<>();
+
+    /**
+     * Re-links the rail at {@code pos} at the end of this tick. Server only.
+     */
+    public static void schedule(World world, BlockPos pos) {
+        queues.computeIfAbsent(world, w -> new LongHashSet()).add(pos.toLong());
+    }
+
+    private static void drain(World world) {
+        LongHashSet queue = queues.remove(world);
+        if (queue == null) {
+            return;
+        }
+        queue.forEach(pos -> {
+            // may have been broken since
+            Rail rail = Rail.at(world, BlockPos.fromLong(pos));
+            if (rail != null) {
+                rail.updateLinks();
+            }
+        });
+    }
+
+    private RailUpdateQueue() {
+    }
+
+}
@@ -0,0 +1,142 @@
+/*
+ * This file is part of Craftorio, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) TechShroom Studios <https://techshoom.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.techshroom.mods.craftorio.rail;
+
+import java.util.Arrays;
+
+import com.techshroom.mods.craftorio.util.LongHashSet;
+import com.techshroom.mods.craftorio.util.LongIntHashMap;
+
+/**
+ * Walks outwards from two rails in lockstep over the loaded rails, stopping as
+ * soon as one side runs out. The walk can be paused and resumed as long as the
+ * graph doesn't change in between.
+ */
+final class SideSearch {
+
+    /**
+     * How many rails are visited between looks at the clock.
+     */
+    private static final int CLOCK_INTERVAL = 256;
+
+    private final RailGraph graph;
+    private final LongIntHashMap owner = new LongIntHashMap(0);
+    private final long[][] queues;
+    private final int[] heads = { 0, 0 };
+    private final int[] tails = { 1, 1 };
+    private boolean done;
+    private LongHashSet smaller;
+
+    SideSearch(RailGraph graph, long a, long b) {
+        this.graph = graph;
+        this.queues = new long[][] { { a }, { b } };
+        if (a == b) {
+            this.done = true;
+            return;
+        }
+        this.owner.put(a, 1);
+        this.owner.put(b, 2);
+    }
+
+    boolean isDone() {
+        return this.done;
+    }
+
+    /**
+     * Returns the rails of the smaller side, or {@code null} if the two rails
+     * are connected. Only valid once {@link #isDone()}.
+     */
+    LongHashSet getSmallerSide() {
+        return this.smaller;
+    }
+
+    /**
+     * Walks until done or {@code deadline}, a {@link System#nanoTime()} value,
+     * has passed.
+     * 
+     * @return {@code true} if done
+     */
+    boolean run(long deadline) {
+        int steps = 0;
+        while (!this.done) {
+            if (++steps == CLOCK_INTERVAL) {
+                steps = 0;
+                if (System.nanoTime() - deadline > 0) {
+                    return false;
+                }
+            }
+            for (int side = 0; side < 2 && !this.done; side++) {
+                step(side);
+            }
+        }
+        return true;
+    }
+
+    void finish() {
+        while (!this.done) {
+            for (int side = 0; side < 2 && !this.done; side++) {
+                step(side);
+            }
+        }
+    }
+
+    private void step(int side) {
+        if (this.heads[side] == this.tails[side]) {
+            this.smaller = new LongHashSet();
+            for (int i = 0; i < this.tails[side]; i++) {
+                this.smaller.add(this.queues[side][i]);
+            }
+            this.done = true;
+            return;
+        }
+        long next = this.queues[side][this.heads[side]++];
+        int mask = this.graph.getLinks(next);
+        for (int i = 0; i < RailGraph.LINK_BITS; i++) {
+            if ((mask & (1 << i)) == 0) {
+                continue;
+            }
+            long other = RailGraph.neighbor(next, i);
+            if (!this.graph.contains(other)) {
+                continue;
+            }
+            int seen = this.owner.get(other);
+            if (seen == side + 1) {
+                continue;
+            }
+            if (seen != 0) {
+                // the walks met
+                this.done = true;
+                return;
+            }
+            this.owner.put(other, side + 1);
+            if (this.tails[side] == this.queues[side].length) {
+                this.queues[side] = Arrays.copyOf(this.queues[side],
+                        this.tails[side] * 2);
+            }
+            this.queues[side][this.tails[side]++] = other;
+        }
+    }
+
+}
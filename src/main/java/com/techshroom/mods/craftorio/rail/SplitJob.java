@@ -0,0 +1,194 @@
+/*
+ * This file is part of Craftorio, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) TechShroom Studios <https://techshoom.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.techshroom.mods.craftorio.rail;
+
+import com.techshroom.mods.craftorio.segment.Segment;
+import com.techshroom.mods.craftorio.segment.SegmentRegistry;
+import com.techshroom.mods.craftorio.util.LongHashSet;
+
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.World;
+
+/**
+ * Splits the segment of two rails if they are no longer connected, a slice at
+ * a time. First the smaller side is searched for, then its rails are moved to
+ * a fresh segment.
+ * 
+ * <p>
+ * The search starts over if the rail graph changes in between slices. Moving
+ * the rails can't be restarted, so nothing may change the graph or segments
+ * while it is going on, see {@link SplitJobQueue#settle(World)}.
+ * </p>
+ */
+final class SplitJob {
+
+    /**
+     * How many times the search may be thrown away before it is finished in
+     * one go.
+     */
+    private static final int MAX_RESTARTS = 4;
+    private static final int CLOCK_INTERVAL = 256;
+
+    private final World world;
+    private final long a;
+    private final long b;
+    private SideSearch search;
+    private int modCount;
+    private int restarts;
+    private Segment fresh;
+    private long[] moved;
+    private int next;
+    /**
+     * The segments this job marked as transitional.
+     */
+    private Segment marked;
+    private Segment markedFresh;
+
+    SplitJob(World world, long a, long b) {
+        this.world = world;
+        this.a = a;
+        this.b = b;
+    }
+
+    boolean isMoving() {
+        return this.fresh != null;
+    }
+
+    /**
+     * Marks the segments this job works on as transitional, until it ends.
+     */
+    void mark() {
+        remark();
+        if (this.fresh != null && this.markedFresh == null) {
+            this.markedFresh = this.fresh;
+            this.fresh.beginTransition();
+        }
+    }
+
+    private void remark() {
+        Segment current = segmentOf(this.a);
+        Segment holder =
+                this.marked == null ? null : this.marked.getSurvivor();
+        if (holder != current) {
+            if (holder != null) {
+                holder.endTransition();
+            }
+            if (current != null) {
+                current.beginTransition();
+            }
+        }
+        this.marked = current;
+    }
+
+    private void unmark() {
+        if (this.marked != null) {
+            this.marked.getSurvivor().endTransition();
+            this.marked = null;
+        }
+        if (this.markedFresh != null) {
+            this.markedFresh.getSurvivor().endTransition();
+            this.markedFresh = null;
+        }
+    }
+
+    private Segment segmentOf(long pos) {
+        Rail rail = Rail.at(this.world, BlockPos.fromLong(pos));
+        return rail == null ? null : rail.getSegment();
+    }
+
+    /**
+     * Works until done or {@code deadline}, a {@link System#nanoTime()}
+     * value, has passed.
+     * 
+     * @return {@code true} if done
+     */
+    boolean run(long deadline) {
+        return work(deadline, true);
+    }
+
+    /**
+     * Finishes the job without looking at the clock.
+     */
+    void finish() {
+        this.restarts = MAX_RESTARTS;
+        work(0, false);
+    }
+
+    private boolean work(long deadline, boolean timed) {
+        if (this.fresh == null && !search(deadline)) {
+            return false;
+        }
+        while (this.fresh != null && this.next < this.moved.length) {
+            if (timed && this.next % CLOCK_INTERVAL == 0
+                    && System.nanoTime() - deadline > 0) {
+                return false;
+            }
+            new Rail(this.world, BlockPos.fromLong(this.moved[this.next++]))
+                    .setSegment(this.fresh);
+        }
+        unmark();
+        return true;
+    }
+
+    /**
+     * @return {@code false} if out of time, {@code true} if the search is
+     *         over, either with rails to move or with nothing to do
+     */
+    private boolean search(long deadline) {
+        RailGraph graph = SegmentRegistry.get(this.world).getGraph();
+        if (this.search == null || graph.getModCount() != this.modCount) {
+            if (this.search != null) {
+                this.restarts++;
+            }
+            if (this.marked != null) {
+                // the segment may have been merged or split meanwhile
+                remark();
+            }
+            this.search = new SideSearch(graph, this.a, this.b);
+            this.modCount = graph.getModCount();
+        }
+        if (this.restarts >= MAX_RESTARTS) {
+            this.search.finish();
+        } else if (!this.search.run(deadline)) {
+            return false;
+        }
+        LongHashSet smaller = this.search.getSmallerSide();
+        Segment segment = segmentOf(this.a);
+        if (smaller == null || segment == null
+                || segment != segmentOf(this.b)) {
+            // still connected, or already apart
+            this.moved = new long[0];
+            return true;
+        }
+        this.fresh = SegmentRegistry.get(this.world).allocate();
+        segment.splitInto(this.fresh, smaller);
+        this.moved = smaller.toArray();
+        if (this.marked != null) {
+            mark();
+        }
+        return true;
+    }
+
+}
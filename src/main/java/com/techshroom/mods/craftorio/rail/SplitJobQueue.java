@@ -0,0 +1,141 @@
+/*
+ * This file is part of Craftorio, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) TechShroom Studios <https://techshoom.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.techshroom.mods.craftorio.rail;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import net.minecraft.world.World;
+import net.minecraftforge.common.MinecraftForge;
+import net.minecraftforge.event.world.WorldEvent;
+import net.minecraftforge.fml.common.eventhandler.SubscribeEvent;
+import net.minecraftforge.fml.common.gameevent.TickEvent;
+
+/**
+ * Runs segment splits that are too big for one go over several ticks, within
+ * a fixed time budget per world and tick. Segments being split report
+ * {@code CLOSED} until the split is done.
+ */
+public final class SplitJobQueue {
+
+    /**
+     * How long a split may take right away before the rest is left for later
+     * ticks.
+     */
+    private static final long INLINE_NANOS = 200_000L;
+    /**
+     * How long queued splits may take per world and tick.
+     */
+    private static final long BUDGET_NANOS = 1_000_000L;
+
+    private static final class Hooks {
+
+        @SubscribeEvent
+        public void onWorldTick(TickEvent.WorldTickEvent event) {
+            if (event.phase == TickEvent.Phase.END
+                    && !event.world.isRemote) {
+                runQueued(event.world);
+            }
+        }
+
+        @SubscribeEvent
+        public void onWorldUnload(WorldEvent.Unload event) {
+            if (!event.getWorld().isRemote) {
+                queues.remove(event.getWorld());
+            }
+        }
+
+    }
+
+    public static void addHooks() {
+        MinecraftForge.EVENT_BUS.register(new Hooks());
+    }
+
+    /**
+     * Server thread only, even {@code get} may drop stale entries.
+     */
+    private static final Map<World, Deque<SplitJob>> queues =
+            new WeakHashMap<>();
+
+    /**
+     * Splits the segment of the rails at {@code a} and {@code b} if they are
+     * no longer connected, now if it is quick and over the next ticks
+     * otherwise.
+     */
+    static void submit(World world, long a, long b) {
+        if (world.isRemote) {
+            return;
+        }
+        SplitJob job = new SplitJob(world, a, b);
+        if (job.run(System.nanoTime() + INLINE_NANOS)) {
+            return;
+        }
+        job.mark();
+        queues.computeIfAbsent(world, w -> new ArrayDeque<>()).add(job);
+    }
+
+    /**
+     * Finishes every split of {@code world} that is already moving rails.
+     * Call before changing rails or segments, a half-moved split can't cope
+     * with that.
+     */
+    public static void settle(World world) {
+        if (world.isRemote) {
+            return;
+        }
+        Deque<SplitJob> queue = queues.get(world);
+        if (queue == null) {
+            return;
+        }
+        for (Iterator<SplitJob> iter = queue.iterator(); iter.hasNext();) {
+            SplitJob job = iter.next();
+            if (job.isMoving()) {
+                iter.remove();
+                job.finish();
+            }
+        }
+    }
+
+    private static void runQueued(World world) {
+        Deque<SplitJob> queue = queues.get(world);
+        if (queue == null) {
+            return;
+        }
+        long deadline = System.nanoTime() + BUDGET_NANOS;
+        while (!queue.isEmpty() && queue.peek().run(deadline)) {
+            queue.poll();
+        }
+        if (queue.isEmpty()) {
+            queues.remove(world);
+        }
+    }
+
+    private SplitJobQueue() {
+    }
+
+}
@@ -0,0 +1,421 @@
+/*
+ * This file is part of Craftorio, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) TechShroom Studios <https://techshoom.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.techshroom.mods.craftorio.segment;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.techshroom.mods.craftorio.rail.RailGraph;
+import com.techshroom.mods.craftorio.util.LongHashSet;
+import com.techshroom.mods.craftorio.util.LongIntHashMap;
+
+/**
+ * Knows which links between the loaded rails of a segment are bridges, that
+ * is, links whose removal would split the segment.
+ * 
+ * <p>
+ * Every rail carries the label of its 2-edge-connected component: rails that
+ * share a loop share a label, and a link is a bridge exactly when its ends
+ * have different labels. Linking onto the end of the track or joining two
+ * segments leaves the labels alone. Closing a loop walks to the other end and
+ * merges the labels on the way, and opening one or removing a rail from it
+ * relabels only the rails of that loop.
+ * </p>
+ */
+final class BridgeIndex {
+
+    private static final int NO_LABEL = -1;
+    /**
+     * Labels are unique across segments, so merging two indexes never mixes
+     * up their components.
+     */
+    private static final AtomicInteger NEXT_LABEL = new AtomicInteger();
+
+    private final RailGraph graph;
+    private LongHashSet vertices = new LongHashSet();
+    private LongIntHashMap labels = new LongIntHashMap(NO_LABEL);
+    /**
+     * The number of rails carrying each label.
+     */
+    private LongIntHashMap sizes = new LongIntHashMap(0);
+
+    BridgeIndex(RailGraph graph) {
+        this.graph = graph;
+    }
+
+    boolean isBridge(long a, long b) {
+        int index = RailGraph.linkIndex(a, b);
+        return index != -1 && (this.graph.getLinks(a) & (1 << index)) != 0
+                && this.vertices.contains(a) && this.vertices.contains(b)
+                && this.labels.get(a) != this.labels.get(b);
+    }
+
+    private int degree(long pos) {
+        int degree = 0;
+        int mask = this.graph.getLinks(pos);
+        for (int i = 0; i < RailGraph.LINK_BITS; i++) {
+            if ((mask & (1 << i)) != 0
+                    && this.vertices.contains(RailGraph.neighbor(pos, i))) {
+                degree++;
+            }
+        }
+        return degree;
+    }
+
+    void addRail(long pos) {
+        if (!this.vertices.add(pos)) {
+            return;
+        }
+        int label = NEXT_LABEL.getAndIncrement();
+        this.labels.put(pos, label);
+        this.sizes.put(label, 1);
+        int mask = this.graph.getLinks(pos);
+        for (int i = 0; i < RailGraph.LINK_BITS; i++) {
+            if ((mask & (1 << i)) != 0) {
+                // it brings links we haven't seen
+                link(pos, RailGraph.neighbor(pos, i), false);
+            }
+        }
+    }
+
+    void removeRail(long pos) {
+        if (!this.vertices.remove(pos)) {
+            return;
+        }
+        int label = this.labels.remove(pos);
+        if (this.sizes.remove(label) <= 1) {
+            // only bridges ran through here
+            return;
+        }
+        // the rest of its loop may have come apart
+        LongHashSet rest = new LongHashSet();
+        int mask = this.graph.getLinks(pos);
+        for (int i = 0; i < RailGraph.LINK_BITS; i++) {
+            long other = RailGraph.neighbor(pos, i);
+            if ((mask & (1 << i)) != 0 && !rest.contains(other)
+                    && this.vertices.contains(other)
+                    && this.labels.get(other) == label) {
+                collect(other, label, rest);
+            }
+        }
+        relabel(rest);
+    }
+
+    /**
+     * Called after {@code a} and {@code b} were linked. {@code joined} is
+     * {@code true} if they were in different segments before.
+     */
+    void link(long a, long b, boolean joined) {
+        if (!this.vertices.contains(a) || !this.vertices.contains(b)) {
+            return;
+        }
+        if (joined || this.labels.get(a) == this.labels.get(b)
+                || degree(a) == 1 || degree(b) == 1) {
+            return;
+        }
+        closeCycle(a, b);
+    }
+
+    /**
+     * Called after the link between {@code a} and {@code b} was cut.
+     */
+    void unlink(long a, long b) {
+        if (!this.vertices.contains(a) || !this.vertices.contains(b)) {
+            return;
+        }
+        int label = this.labels.get(a);
+        if (label != this.labels.get(b)) {
+            // a bridge, the rest is untouched
+            return;
+        }
+        // opened a loop, some of its links may be bridges now
+        this.sizes.remove(label);
+        relabel(collect(a, label, new LongHashSet()));
+    }
+
+    /**
+     * Takes over everything from the index of a segment merged into this one.
+     */
+    void absorb(BridgeIndex loser) {
+        if (loser.vertices.size() > this.vertices.size()) {
+            LongHashSet swapVertices = this.vertices;
+            this.vertices = loser.vertices;
+            loser.vertices = swapVertices;
+            LongIntHashMap swapLabels = this.labels;
+            this.labels = loser.labels;
+            loser.labels = swapLabels;
+            LongIntHashMap swapSizes = this.sizes;
+            this.sizes = loser.sizes;
+            loser.sizes = swapSizes;
+        }
+        this.vertices.addAll(loser.vertices);
+        this.labels.putAll(loser.labels);
+        this.sizes.putAll(loser.sizes);
+        loser.vertices.clear();
+        loser.labels.clear();
+        loser.sizes.clear();
+    }
+
+    /**
+     * Moves {@code moved}, a whole component that no longer links to the
+     * rest, into {@code target}.
+     */
+    void split(BridgeIndex target, LongHashSet moved) {
+        moved.forEach(pos -> {
+            if (this.vertices.remove(pos)) {
+                target.vertices.add(pos);
+            }
+            int label = this.labels.remove(pos);
+            if (label == NO_LABEL) {
+                return;
+            }
+            target.labels.put(pos, label);
+            if (this.sizes.containsKey(label)) {
+                target.sizes.put(label, this.sizes.remove(label));
+            }
+        });
+    }
+
+    /**
+     * Looks for a way from {@code a} to the component of {@code b} that
+     * doesn't take their new link, and merges every component on it.
+     */
+    private void closeCycle(long a, long b) {
+        int target = this.labels.get(b);
+        // the link index each rail was reached through
+        LongIntHashMap via = new LongIntHashMap(-1);
+        via.put(a, RailGraph.LINK_BITS);
+        long[] queue = { a };
+        int head = 0;
+        int tail = 1;
+        long found = a;
+        search: while (head < tail) {
+            long v = queue[head++];
+            int mask = this.graph.getLinks(v);
+            for (int i = 0; i < RailGraph.LINK_BITS; i++) {
+                if ((mask & (1 << i)) == 0) {
+                    continue;
+                }
+                long w = RailGraph.neighbor(v, i);
+                if ((v == a && w == b) || !this.vertices.contains(w)
+                        || via.containsKey(w)) {
+                    continue;
+                }
+                via.put(w, i);
+                if (this.labels.get(w) == target) {
+                    found = w;
+                    break search;
+                }
+                if (tail == queue.length) {
+                    queue = Arrays.copyOf(queue, tail * 2);
+                }
+                queue[tail++] = w;
+            }
+        }
+        if (found == a) {
+            // the rest of the way isn't loaded, so as far as we know it's a
+            // bridge
+            return;
+        }
+        int keep = target;
+        for (long pos = found; pos != a; pos = back(pos, via)) {
+            int label = this.labels.get(pos);
+            if (this.sizes.get(label) > this.sizes.get(keep)) {
+                keep = label;
+            }
+        }
+        if (this.sizes.get(this.labels.get(a)) > this.sizes.get(keep)) {
+            keep = this.labels.get(a);
+        }
+        for (long pos = found;; pos = back(pos, via)) {
+            int label = this.labels.get(pos);
+            if (label != keep) {
+                rename(pos, label, keep);
+            }
+            if (pos == a) {
+                break;
+            }
+        }
+    }
+
+    private static long back(long pos, LongIntHashMap via) {
+        return RailGraph.neighbor(pos, RailGraph.oppositeIndex(via.get(pos)));
+    }
+
+    /**
+     * Adds every rail labelled {@code label} that {@code start} reaches to
+     * {@code into}.
+     */
+    private LongHashSet collect(long start, int label, LongHashSet into) {
+        long[] stack = { start };
+        int depth = 1;
+        into.add(start);
+        while (depth > 0) {
+            long v = stack[--depth];
+            int mask = this.graph.getLinks(v);
+            for (int i = 0; i < RailGraph.LINK_BITS; i++) {
+                if ((mask & (1 << i)) == 0) {
+                    continue;
+                }
+                long w = RailGraph.neighbor(v, i);
+                if (this.vertices.contains(w)
+                        && this.labels.get(w) == label && into.add(w)) {
+                    if (depth == stack.length) {
+                        stack = Arrays.copyOf(stack, depth * 2);
+                    }
+                    stack[depth++] = w;
+                }
+            }
+        }
+        return into;
+    }
+
+    private void rename(long start, int from, int to) {
+        LongHashSet component = collect(start, from, new LongHashSet());
+        component.forEach(pos -> this.labels.put(pos, to));
+        this.sizes.remove(from);
+        this.sizes.put(to, this.sizes.get(to) + component.size());
+    }
+
+    /**
+     * Gives the 2-edge-connected components among {@code members} fresh
+     * labels.
+     */
+    private void relabel(LongHashSet members) {
+        LongIntHashMap cut = findBridges(members);
+        members.forEach(this.labels::remove);
+        long[] stack = new long[16];
+        for (long root : members.toArray()) {
+            if (this.labels.containsKey(root)) {
+                continue;
+            }
+            int label = NEXT_LABEL.getAndIncrement();
+            int size = 0;
+            this.labels.put(root, label);
+            stack[0] = root;
+            int depth = 1;
+            while (depth > 0) {
+                long v = stack[--depth];
+                size++;
+                int mask = this.graph.getLinks(v) & ~cut.get(v);
+                for (int i = 0; i < RailGraph.LINK_BITS; i++) {
+                    if ((mask & (1 << i)) == 0) {
+                        continue;
+                    }
+                    long w = RailGraph.neighbor(v, i);
+                    if (!members.contains(w) || this.labels.containsKey(w)) {
+                        continue;
+                    }
+                    this.labels.put(w, label);
+                    if (depth == stack.length) {
+                        stack = Arrays.copyOf(stack, depth * 2);
+                    }
+                    stack[depth++] = w;
+                }
+            }
+            this.sizes.put(label, size);
+        }
+    }
+
+    /**
+     * Finds the bridges of the links among {@code members} with Tarjan's
+     * low-link search, as a mask of link bits per rail.
+     */
+    private LongIntHashMap findBridges(LongHashSet members) {
+        LongIntHashMap bridges = new LongIntHashMap(0);
+        LongIntHashMap discovered = new LongIntHashMap(-1);
+        // one frame per rail on the current DFS path
+        int capacity = 64;
+        long[] stackPos = new long[capacity];
+        long[] stackParent = new long[capacity];
+        int[] stackBit = new int[capacity];
+        int[] stackLow = new int[capacity];
+        int time = 0;
+        for (long root : members.toArray()) {
+            if (discovered.containsKey(root)) {
+                continue;
+            }
+            discovered.put(root, time);
+            stackPos[0] = root;
+            stackParent[0] = root;
+            stackBit[0] = 0;
+            stackLow[0] = time;
+            time++;
+            int depth = 1;
+            while (depth > 0) {
+                int top = depth - 1;
+                long v = stackPos[top];
+                int mask = this.graph.getLinks(v);
+                int bit = stackBit[top];
+                while (bit < RailGraph.LINK_BITS && ((mask & (1 << bit)) == 0
+                        || !members.contains(RailGraph.neighbor(v, bit)))) {
+                    bit++;
+                }
+                if (bit < RailGraph.LINK_BITS) {
+                    stackBit[top] = bit + 1;
+                    long w = RailGraph.neighbor(v, bit);
+                    if (top > 0 && w == stackParent[top]) {
+                        continue;
+                    }
+                    int seen = discovered.get(w);
+                    if (seen != -1) {
+                        stackLow[top] = Math.min(stackLow[top], seen);
+                        continue;
+                    }
+                    if (depth == stackPos.length) {
+                        capacity *= 2;
+                        stackPos = Arrays.copyOf(stackPos, capacity);
+                        stackParent = Arrays.copyOf(stackParent, capacity);
+                        stackBit = Arrays.copyOf(stackBit, capacity);
+                        stackLow = Arrays.copyOf(stackLow, capacity);
+                    }
+                    discovered.put(w, time);
+                    stackPos[depth] = w;
+                    stackParent[depth] = v;
+                    stackBit[depth] = 0;
+                    stackLow[depth] = time;
+                    time++;
+                    depth++;
+                    continue;
+                }
+                depth--;
+                if (top > 0) {
+                    int parent = top - 1;
+                    long u = stackPos[parent];
+                    stackLow[parent] = Math.min(stackLow[parent],
+                            stackLow[top]);
+                    if (stackLow[top] > discovered.get(u)) {
+                        int index = RailGraph.linkIndex(u, v);
+                        bridges.put(u, bridges.get(u) | (1 << index));
+                        int opposite = RailGraph.oppositeIndex(index);
+                        bridges.put(v, bridges.get(v) | (1 << opposite));
+                    }
+                }
+            }
+        }
+        return bridges;
+    }
+
+}
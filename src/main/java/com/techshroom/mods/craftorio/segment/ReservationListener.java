@@ -22,9 +22,19 @@
  * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
  * THE SOFTWARE.
  */
-package com.techshroom.mods.craftorio.block.entity;
+package com.techshroom.mods.craftorio.segment;
 
+/**
+ * Told when a train that was waiting for a segment got its reservation.
+ */
+@FunctionalInterface
+public interface ReservationListener {
 
-public class TileEntityAutoRailNormal extends TileEntityAutoRailBase {
+    /**
+     * Called once the segment is reserved for {@code train}. The segment is in
+     * {@link com.techshroom.mods.craftorio.signal.BlockingState#EXPECTING
+     * EXPECTING} state at this point.
+     */
+    void onReservationGranted(Segment segment, int train);
 
 }
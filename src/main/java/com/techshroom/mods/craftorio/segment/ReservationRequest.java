@@ -0,0 +1,139 @@
+/*
+ * This file is part of Craftorio, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) TechShroom Studios <https://techshoom.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.techshroom.mods.craftorio.segment;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * A train asking for a path of segments through the
+ * {@link ReservationResolver}. Requests made in the same tick are resolved
+ * together, in the order of {@link ReservationResolver#setOrder(Comparator)}.
+ */
+public final class ReservationRequest {
+
+    /**
+     * Told how a request was resolved.
+     */
+    @FunctionalInterface
+    public interface Outcome {
+
+        /**
+         * Called on the main thread once the request was resolved. If
+         * {@code granted}, every segment of the path is reserved for the train
+         * and expecting it. Otherwise nothing was reserved and the train may
+         * ask again.
+         */
+        void onResolved(ReservationRequest request, boolean granted);
+
+    }
+
+    /**
+     * Whoever asked first goes first.
+     */
+    public static final Comparator<ReservationRequest> BY_ARRIVAL =
+            Comparator.comparingLong(ReservationRequest::getArrival);
+    /**
+     * Higher schedule priorities go first.
+     */
+    public static final Comparator<ReservationRequest> BY_PRIORITY =
+            Comparator.comparingInt(ReservationRequest::getPriority)
+                    .reversed();
+    /**
+     * Longer trains go first, they are the ones that block a junction the
+     * longest when kept waiting in front of it.
+     */
+    public static final Comparator<ReservationRequest> BY_LENGTH =
+            Comparator.comparingInt(ReservationRequest::getLength).reversed();
+
+    private final int train;
+    private final List<Segment> path;
+    private final int priority;
+    private final int length;
+    private final Outcome outcome;
+    /**
+     * Set when the request is submitted.
+     */
+    private long arrival = -1;
+
+    public ReservationRequest(int train, Collection<Segment> path,
+            int priority, int length, Outcome outcome) {
+        checkArgument(train != Segment.NO_TRAIN, "invalid train id %s", train);
+        checkArgument(length >= 0, "negative train length %s", length);
+        this.train = train;
+        this.path = ImmutableList.copyOf(path);
+        this.priority = priority;
+        this.length = length;
+        this.outcome = checkNotNull(outcome);
+    }
+
+    public int getTrain() {
+        return this.train;
+    }
+
+    public List<Segment> getPath() {
+        return this.path;
+    }
+
+    public int getPriority() {
+        return this.priority;
+    }
+
+    /**
+     * Returns the length of the train, in carts.
+     */
+    public int getLength() {
+        return this.length;
+    }
+
+    /**
+     * Returns the position of this request in the order requests were
+     * submitted, or {@code -1} if it was not submitted yet.
+     */
+    public long getArrival() {
+        return this.arrival;
+    }
+
+    void setArrival(long arrival) {
+        this.arrival = arrival;
+    }
+
+    Outcome getOutcome() {
+        return this.outcome;
+    }
+
+    @Override
+    public String toString() {
+        return "ReservationRequest[train=" + this.train + ",path=" + this.path
+                + "]";
+    }
+
+}
@@ -0,0 +1,167 @@
+/*
+ * This file is part of Craftorio, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) TechShroom Studios <https://techshoom.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.techshroom.mods.craftorio.segment;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.techshroom.mods.craftorio.signal.BlockingState;
+
+import net.minecraft.world.World;
+import net.minecraftforge.common.MinecraftForge;
+import net.minecraftforge.event.world.WorldEvent;
+import net.minecraftforge.fml.common.eventhandler.SubscribeEvent;
+import net.minecraftforge.fml.common.gameevent.TickEvent;
+
+/**
+ * Collects the path reservations trains ask for during a tick and resolves
+ * them together at the end of it. Conflicting requests are settled by
+ * {@link #setOrder(Comparator) a fixed order} instead of by whoever happened
+ * to be ticked first, and a segment's signals hear about the outcome once,
+ * no matter how many trains asked for it.
+ */
+public final class ReservationResolver {
+
+    private static final class Hooks {
+
+        @SubscribeEvent
+        public void onWorldTick(TickEvent.WorldTickEvent event) {
+            if (event.phase == TickEvent.Phase.END
+                    && !event.world.isRemote) {
+                List<ReservationRequest> batch;
+                synchronized (pending) {
+                    batch = pending.remove(event.world);
+                }
+                if (batch != null) {
+                    resolve(batch);
+                }
+            }
+        }
+
+        @SubscribeEvent
+        public void onWorldUnload(WorldEvent.Unload event) {
+            synchronized (pending) {
+                pending.remove(event.getWorld());
+            }
+        }
+
+    }
+
+    public static void addHooks() {
+        MinecraftForge.EVENT_BUS.register(new Hooks());
+    }
+
+    /**
+     * Weak so worlds that are dropped without an unload event can still be
+     * collected. Guarded by itself, trains may plan off the main thread.
+     */
+    private static final Map<World, List<ReservationRequest>> pending =
+            new WeakHashMap<>();
+    private static final AtomicLong nextArrival = new AtomicLong();
+    private static volatile Comparator<ReservationRequest> order =
+            ReservationRequest.BY_PRIORITY
+                    .thenComparing(ReservationRequest.BY_LENGTH);
+
+    /**
+     * Sets the order conflicting requests are granted in, for example
+     * {@code BY_PRIORITY.thenComparing(BY_LENGTH)}. Requests the order
+     * considers equal go by arrival.
+     */
+    public static void setOrder(Comparator<ReservationRequest> order) {
+        ReservationResolver.order = checkNotNull(order);
+    }
+
+    public static Comparator<ReservationRequest> getOrder() {
+        return order;
+    }
+
+    /**
+     * Queues {@code request} to be resolved at the end of this tick. Safe to
+     * call from any thread.
+     */
+    public static void submit(World world, ReservationRequest request) {
+        synchronized (pending) {
+            request.setArrival(nextArrival.getAndIncrement());
+            pending.computeIfAbsent(world, w -> new ArrayList<>())
+                    .add(request);
+        }
+    }
+
+    /**
+     * Resolves a batch of requests. Main thread only.
+     */
+    static void resolve(List<ReservationRequest> batch) {
+        batch.sort(order.thenComparing(ReservationRequest.BY_ARRIVAL));
+        // the state each touched segment had before the batch
+        Map<Segment, BlockingState> before = new IdentityHashMap<>();
+        boolean[] granted = new boolean[batch.size()];
+        for (int i = 0; i < batch.size(); i++) {
+            ReservationRequest request = batch.get(i);
+            Segment[] path = Segment.inLockOrder(request.getPath());
+            if (!canReserveAll(path, request.getTrain())) {
+                continue;
+            }
+            long[] previous = Segment.claimAll(path, request.getTrain());
+            if (previous == null) {
+                // lost a race with a planner on another thread
+                continue;
+            }
+            for (int j = 0; j < path.length; j++) {
+                before.putIfAbsent(path[j],
+                        Segment.effectiveStateOf(previous[j]));
+            }
+            granted[i] = true;
+        }
+        before.forEach(Segment::stateChanged);
+        for (int i = 0; i < batch.size(); i++) {
+            ReservationRequest request = batch.get(i);
+            request.getOutcome().onResolved(request, granted[i]);
+        }
+    }
+
+    /**
+     * Checks the whole path before claiming any of it, so a request that
+     * cannot win does not flip the segments it could get.
+     */
+    private static boolean canReserveAll(Segment[] path, int train) {
+        for (Segment segment : path) {
+            if (!segment.canReserve(train)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private ReservationResolver() {
+    }
+
+}
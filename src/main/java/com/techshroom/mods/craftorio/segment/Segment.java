@@ -27,114 +27,774 @@ package com.techshroom.mods.craftorio.segment;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 
-import java.util.BitSet;
-import java.util.HashSet;
-import java.util.Set;
-
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
-import com.techshroom.mods.craftorio.block.entity.TileEntityAutoRailBase;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongUnaryOperator;
+
+import com.techshroom.mods.craftorio.CraftorioMod;
 import com.techshroom.mods.craftorio.block.entity.TileEntityRailSignal;
+import com.techshroom.mods.craftorio.rail.Rail;
+import com.techshroom.mods.craftorio.rail.RailChunk;
+import com.techshroom.mods.craftorio.segment.SegmentGraph.Edge;
 import com.techshroom.mods.craftorio.signal.BlockingState;
+import com.techshroom.mods.craftorio.util.LongHashSet;
+
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.tileentity.TileEntity;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.World;
+import net.minecraftforge.common.MinecraftForge;
 
 /**
  * A segment is a section of a railway that is guarded by one or more signals. A
  * railway with no signals has only one segment.
+ * 
+ * <p>
+ * Segments are owned by a {@link SegmentRegistry}. A segment stays alive as
+ * long as any rail, loaded or not, belongs to it, and is freed when the last
+ * one leaves. A merged-away segment is dead, rails that still store its id
+ * resolve to the surviving segment through the registry.
+ * </p>
  */
 public final class Segment {
 
-    private static final BitSet usedIds = new BitSet();
-    private static final LoadingCache<Integer, Segment> SEGMENT_CACHE =
-            CacheBuilder.newBuilder().weakValues()
-                    .<Integer, Segment> removalListener(event -> {
-                        usedIds.clear(event.getKey());
-                    }).build(CacheLoader.from(Segment::new));
+    /**
+     * The reservation of a segment nobody reserved.
+     */
+    public static final int NO_TRAIN = -1;
+
+    /**
+     * A train waiting for this segment. Higher priorities go first, then
+     * whoever asked first.
+     */
+    private static final class Waiter implements Comparable<Waiter> {
+
+        private final int train;
+        private final int priority;
+        private final long ticket;
+        private final ReservationListener listener;
+
+        Waiter(int train, int priority, long ticket,
+                ReservationListener listener) {
+            this.train = train;
+            this.priority = priority;
+            this.ticket = ticket;
+            this.listener = listener;
+        }
+
+        @Override
+        public int compareTo(Waiter o) {
+            if (this.priority != o.priority) {
+                return Integer.compare(o.priority, this.priority);
+            }
+            return Long.compare(this.ticket, o.ticket);
+        }
+
+    }
+
+    /**
+     * Hands out tickets across all segments, so queues stay in order when
+     * segments merge.
+     */
+    private static final AtomicLong nextTicket = new AtomicLong();
+
+    private static final BlockingState[] STATES = BlockingState.values();
+    private static final long STATE_MASK = 0b11;
+    private static final long TRANSITIONAL_BIT = 0b100;
+    /**
+     * Set once on the word of a merged-away segment, which is never changed
+     * again. Whoever sees it retries on {@link #getSurvivor()}.
+     */
+    private static final long MERGED_BIT = 0b1000;
+
+    private static long pack(int train, BlockingState state) {
+        return (long) train << 32 | state.ordinal();
+    }
+
+    private static int trainOf(long word) {
+        return (int) (word >> 32);
+    }
+
+    private static BlockingState stateOf(long word) {
+        return STATES[(int) (word & STATE_MASK)];
+    }
+
+    /**
+     * Returns the state trains and signals see, which is CLOSED while the
+     * segment is transitional.
+     */
+    static BlockingState effectiveStateOf(long word) {
+        return (word & TRANSITIONAL_BIT) != 0 ? BlockingState.CLOSED
+                : stateOf(word);
+    }
+
+    private static long withTrain(long word, int train) {
+        return (long) train << 32 | (word & 0xFFFFFFFFL);
+    }
 
-    public static Segment get(int id) {
-        return SEGMENT_CACHE.getUnchecked(id);
+    private static long withState(long word, BlockingState state) {
+        return word & ~STATE_MASK | state.ordinal();
     }
 
-    public static Segment create() {
-        return get(usedIds.nextClearBit(0));
+    private static boolean canReserve(long word, int train) {
+        int reservation = trainOf(word);
+        if (reservation != NO_TRAIN && reservation != train) {
+            return false;
+        }
+        BlockingState state = effectiveStateOf(word);
+        return state == BlockingState.OPEN
+                || (reservation == train && state == BlockingState.EXPECTING);
     }
 
-    private final Set<TileEntityRailSignal> guardingSignals = new HashSet<>();
-    private final Set<TileEntityAutoRailBase> rails = new HashSet<>();
+    /**
+     * The packed positions of the signals guarding this segment, loaded or
+     * not.
+     */
+    private final LongHashSet guardingSignals = new LongHashSet();
+    /**
+     * The packed positions of the rails of this segment that are currently
+     * loaded.
+     */
+    private LongHashSet rails = new LongHashSet();
+    private final BridgeIndex bridges;
+    private final SegmentRegistry registry;
     private final int id;
-    private BlockingState state = BlockingState.OPEN;
-    private int reservation;
+    /**
+     * The reserving train and the state in one word, so train planners on
+     * other threads can claim segments with a compare-and-set and never see
+     * the two disagree. The high 32 bits hold the train, the low two bits the
+     * state, and {@link #TRANSITIONAL_BIT} is set while {@link #transitions}
+     * is not zero. {@link #MERGED_BIT} freezes it.
+     */
+    private final AtomicLong word =
+            new AtomicLong(pack(NO_TRAIN, BlockingState.OPEN));
+    /**
+     * Guarded by itself.
+     */
+    private final PriorityQueue<Waiter> waiters = new PriorityQueue<>();
+    /**
+     * The number of unfinished jobs reshaping this segment. Main thread only.
+     */
+    private int transitions;
+    /**
+     * The number of carts in this segment, see {@link SegmentOccupancy}. Main
+     * thread only.
+     */
+    private int occupants;
+    /**
+     * The reservation this segment had when its first cart rolled in, or
+     * {@link #NO_TRAIN}. Main thread only.
+     */
+    private int occupiedUnder = NO_TRAIN;
+    /**
+     * The segment this one was merged into, if it was. Written on the main
+     * thread, read by {@link #getSurvivor()} from any thread.
+     */
+    private volatile Segment absorbedBy;
 
-    private Segment(int id) {
-        usedIds.set(id);
+    Segment(SegmentRegistry registry, int id) {
+        this.registry = registry;
         this.id = id;
+        this.bridges = new BridgeIndex(registry.getGraph());
     }
 
     public int getId() {
         return this.id;
     }
 
+    SegmentRegistry getRegistry() {
+        return this.registry;
+    }
+
     public void addRailSignal(TileEntityRailSignal signal) {
         checkNotNull(signal);
-        checkState(!this.guardingSignals.contains(signal),
+        checkState(this.guardingSignals.add(signal.getPos().toLong()),
                 "duplicate signal registration");
-        this.guardingSignals.add(signal);
-        signal.onStateChange(this.state, this.state);
+        Optional<Rail> in = signal.getGuardedRail();
+        if (in.isPresent()) {
+            Optional<Rail> out = signal.getAttachedRail();
+            Segment from = out.map(Rail::getSegment).orElse(null);
+            this.registry.getSegmentGraph().addEdge(signal.getPos().toLong(),
+                    out.map(Rail::key).orElse(in.get().key()),
+                    from == null ? RailChunk.NO_SEGMENT : from.getId(),
+                    in.get().key(), this.id);
+        }
+        signal.onStateChange(getState(), getState());
     }
 
     public boolean hasSignal(TileEntityRailSignal signal) {
-        return this.guardingSignals.contains(signal);
+        return this.guardingSignals.contains(signal.getPos().toLong());
+    }
+
+    /**
+     * Called when a rail of this segment is loaded or joins it.
+     */
+    public void loadRail(Rail rail) {
+        long pos = rail.key();
+        this.rails.add(pos);
+        this.bridges.addRail(pos);
+    }
+
+    /**
+     * Called when a rail of this segment is unloaded or leaves it.
+     */
+    public void unloadRail(Rail rail) {
+        long pos = rail.key();
+        this.rails.remove(pos);
+        this.bridges.removeRail(pos);
+    }
+
+    /**
+     * Called after two rails of this segment were linked. {@code joined} is
+     * {@code true} if the link is what merged their segments.
+     */
+    public void onLinked(Rail a, Rail b, boolean joined) {
+        this.bridges.link(a.key(), b.key(), joined);
+    }
+
+    /**
+     * Called after the link between two rails of this segment was cut.
+     */
+    public void onUnlinked(BlockPos a, BlockPos b) {
+        this.bridges.unlink(a.toLong(), b.toLong());
+    }
+
+    /**
+     * Returns {@code true} if cutting the link between {@code a} and {@code b}
+     * would split this segment, as far as the loaded rails can tell.
+     */
+    public boolean isBridge(Rail a, Rail b) {
+        return this.bridges.isBridge(a.key(), b.key());
+    }
+
+    /**
+     * Prepares {@code target} to take over {@code moved}, a part of this
+     * segment that no longer links to the rest, and hands it the signals
+     * guarding that part and the carts on it. Call before moving the rails
+     * themselves.
+     */
+    public void splitInto(Segment target, LongHashSet moved) {
+        this.bridges.split(target.bridges, moved);
+        this.registry.getOccupancy().split(this, target, moved);
+        SegmentGraph graph = this.registry.getSegmentGraph();
+        graph.split(this.id, target.id, moved);
+        for (long pos : this.guardingSignals.toArray()) {
+            Edge edge = graph.getEdge(BlockPos.fromLong(pos));
+            if (edge != null && edge.getTo() == target.id) {
+                this.guardingSignals.remove(pos);
+                target.guardingSignals.add(pos);
+                TileEntityRailSignal signal = resolveSignal(pos);
+                if (signal != null) {
+                    signal.onStateChange(target.getState(), target.getState());
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the number of rails, loaded or not, in this segment.
+     */
+    public int getRailCount() {
+        return this.registry.sizeOf(this);
+    }
+
+    /**
+     * Takes over everything from a segment that was merged into this one. If
+     * both were reserved by different trains this one keeps its reservation,
+     * and a {@link SegmentReservationLostEvent} is posted for the other train.
+     */
+    void absorb(Segment loser) {
+        BlockingState previous = getState();
+        loser.absorbedBy = this;
+        if (loser.rails.size() > this.rails.size()) {
+            LongHashSet swap = this.rails;
+            this.rails = loser.rails;
+            loser.rails = swap;
+        }
+        this.rails.addAll(loser.rails);
+        loser.rails.clear();
+        this.bridges.absorb(loser.bridges);
+        this.guardingSignals.addAll(loser.guardingSignals);
+        loser.guardingSignals.clear();
+        WaitForGraph waitFor = this.registry.getWaitForGraph();
+        synchronized (loser.waiters) {
+            synchronized (this.waiters) {
+                this.waiters.addAll(loser.waiters);
+            }
+            for (Waiter waiter : loser.waiters) {
+                waitFor.removeWait(waiter.train, loser);
+                waitFor.addWait(waiter.train, this);
+            }
+            loser.waiters.clear();
+        }
+        this.transitions += loser.transitions;
+        loser.transitions = 0;
+        if (this.occupants == 0) {
+            this.occupiedUnder = loser.occupiedUnder;
+        }
+        this.occupants += loser.occupants;
+        loser.occupants = 0;
+        loser.occupiedUnder = NO_TRAIN;
+        // planners still claiming the loser retry on us from here on
+        long theirs = loser.word.getAndUpdate(w -> w | MERGED_BIT);
+        this.word.getAndUpdate(ours -> {
+            long merged = ours;
+            if (trainOf(merged) == NO_TRAIN) {
+                merged = withTrain(merged, trainOf(theirs));
+            }
+            if (stateOf(theirs).compareTo(stateOf(merged)) > 0) {
+                merged = withState(merged, stateOf(theirs));
+            }
+            return this.transitions > 0 ? merged | TRANSITIONAL_BIT : merged;
+        });
+        int dropped = trainOf(theirs);
+        if (dropped != NO_TRAIN && dropped != getReservation()) {
+            CraftorioMod.getLogger().warn("Train " + dropped
+                    + " lost its reservation of " + loser + " to the merge"
+                    + " into " + this);
+            MinecraftForge.EVENT_BUS.post(new SegmentReservationLostEvent(
+                    this.registry.getWorld(), this, dropped));
+        }
+        stateChanged(previous);
     }
 
-    public void addRail(TileEntityAutoRailBase rail) {
-        this.rails.add(rail);
+    /**
+     * Returns the live segment that took over this one through merges, or this
+     * segment if it was never merged away.
+     */
+    public Segment getSurvivor() {
+        Segment survivor = this;
+        while (survivor.absorbedBy != null) {
+            survivor = survivor.absorbedBy;
+        }
+        return survivor;
+    }
+
+    /**
+     * Marks this segment as being reshaped by a job that will finish on a
+     * later tick. Until every such job has ended the segment reports
+     * {@link BlockingState#CLOSED}, so no train is let in while its rails
+     * are being moved around.
+     */
+    public void beginTransition() {
+        if (this.transitions++ == 0) {
+            update(w -> w | TRANSITIONAL_BIT);
+        }
     }
 
-    public void removeRail(TileEntityAutoRailBase rail) {
-        this.rails.remove(rail);
+    public void endTransition() {
+        checkState(this.transitions > 0, "no transition in progress");
+        if (--this.transitions == 0) {
+            update(w -> w & ~TRANSITIONAL_BIT);
+        }
+    }
+
+    public boolean isTransitional() {
+        return (liveWord() & TRANSITIONAL_BIT) != 0;
     }
 
     public void removeRailSignal(TileEntityRailSignal signal) {
-        this.guardingSignals.remove(signal);
+        if (!this.guardingSignals.remove(signal.getPos().toLong())) {
+            return;
+        }
+        SegmentGraph graph = this.registry.getSegmentGraph();
+        Edge edge = graph.getEdge(signal.getPos());
+        if (edge != null && edge.getTo() == this.id) {
+            graph.removeEdge(edge.getSignal());
+        }
     }
 
-    public Set<TileEntityRailSignal> getGuardingSignals() {
+    /**
+     * Returns the packed positions of the signals guarding this segment.
+     */
+    public LongHashSet getGuardingSignals() {
         return this.guardingSignals;
     }
 
-    public Set<TileEntityAutoRailBase> getRails() {
+    /**
+     * Returns the packed positions of the loaded rails of this segment.
+     */
+    public LongHashSet getRails() {
         return this.rails;
     }
 
-    public boolean attemptReserve(int train) {
-        if (this.reservation != -1 && this.reservation != train) {
+    /**
+     * Reserves every segment of {@code path} for {@code train}, or none of
+     * them. Segments are checked and claimed in id order, and their signals
+     * are only told once all of them are claimed.
+     * 
+     * @return {@code true} if the whole path is reserved
+     */
+    public static boolean attemptReserveAll(Collection<Segment> path,
+            int train) {
+        Segment[] claimed;
+        long[] claimedWords;
+        do {
+            claimed = inLockOrder(path);
+            claimedWords = claimAll(claimed, train);
+        } while (claimedWords == null && anyMergedAway(claimed));
+        if (claimedWords == null) {
             return false;
         }
-        if (this.state != BlockingState.OPEN) {
-            return false;
+        Segment[] ordered = claimed;
+        long[] previous = claimedWords;
+        if (ordered.length > 0) {
+            onMainThread(ordered[0].registry, () -> {
+                for (int i = 0; i < ordered.length; i++) {
+                    ordered[i].signalStateChange(
+                            effectiveStateOf(previous[i]));
+                }
+            });
+        }
+        return true;
+    }
+
+    /**
+     * Returns the live segments of {@code path}, each once, in id order.
+     */
+    static Segment[] inLockOrder(Collection<Segment> path) {
+        return path.stream().map(Segment::getSurvivor).distinct()
+                .sorted(Comparator.comparingInt(Segment::getId))
+                .toArray(Segment[]::new);
+    }
+
+    private static boolean anyMergedAway(Segment[] segments) {
+        for (Segment segment : segments) {
+            if (segment.absorbedBy != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Claims every segment of {@code ordered} for {@code train} without
+     * telling signals or waiters.
+     * 
+     * @return the words the segments had before, or {@code null} if one of
+     *         them could not be claimed or was merged away meanwhile, in
+     *         which case none are
+     */
+    static long[] claimAll(Segment[] ordered, int train) {
+        long[] previous = new long[ordered.length];
+        long reserved = pack(train, BlockingState.EXPECTING);
+        for (int i = 0; i < ordered.length; i++) {
+            AtomicLong word = ordered[i].word;
+            long current;
+            do {
+                current = word.get();
+                if ((current & MERGED_BIT) != 0
+                        || !canReserve(current, train)) {
+                    // give back what we took, newest first
+                    for (int j = i - 1; j >= 0; j--) {
+                        ordered[j].unclaim(train, previous[j]);
+                    }
+                    return null;
+                }
+            } while (!word.compareAndSet(current, reserved));
+            previous[i] = current;
+        }
+        return previous;
+    }
+
+    /**
+     * Undoes a claim of {@code train} that replaced {@code previous}, keeping
+     * whatever else changed since. Does nothing if the reservation was
+     * taken over meanwhile.
+     */
+    private void unclaim(int train, long previous) {
+        updateLive(w -> trainOf(w) != train ? w
+                : withState(withTrain(w, trainOf(previous)),
+                        stateOf(previous)));
+    }
+
+    /**
+     * Returns {@code true} if {@code train} could reserve this segment right
+     * now.
+     */
+    boolean canReserve(int train) {
+        return canReserve(liveWord(), train);
+    }
+
+    /**
+     * Gives up the reservations of {@code train} on every segment of
+     * {@code path}.
+     */
+    public static void releaseAll(Collection<Segment> path, int train) {
+        for (Segment segment : path) {
+            segment.getSurvivor().release(train);
         }
-        this.reservation = train;
-        setState(BlockingState.EXPECTING);
+    }
+
+    /**
+     * Reserves this segment for {@code train} if it is open. Safe to call from
+     * any thread, signals are updated on the main thread.
+     */
+    public boolean attemptReserve(int train) {
+        long current;
+        do {
+            current = this.word.get();
+            if ((current & MERGED_BIT) != 0) {
+                return getSurvivor().attemptReserve(train);
+            }
+            int reservation = trainOf(current);
+            if ((reservation != NO_TRAIN && reservation != train)
+                    || effectiveStateOf(current) != BlockingState.OPEN) {
+                return false;
+            }
+        } while (!this.word.compareAndSet(current,
+                pack(train, BlockingState.EXPECTING)));
+        stateChanged(BlockingState.OPEN);
         return true;
     }
 
+    /**
+     * Reserves this segment for {@code train} if it can be right now, or
+     * queues the train otherwise. A queued train is handed the reservation
+     * as soon as the segment is open again, and {@code listener} is told.
+     * Queuing a train again replaces its earlier place in the queue.
+     * 
+     * @return {@code true} if the segment was reserved right away
+     */
+    public boolean reserveOrWait(int train, int priority,
+            ReservationListener listener) {
+        checkNotNull(listener);
+        cancelWait(train);
+        if (attemptReserve(train)) {
+            return true;
+        }
+        synchronized (this.waiters) {
+            this.waiters.add(new Waiter(train, priority,
+                    nextTicket.getAndIncrement(), listener));
+            this.registry.getWaitForGraph().addWait(train, this);
+        }
+        if (getState() == BlockingState.OPEN) {
+            // opened up while we were queuing
+            onMainThread(this.registry, this::grantWaiters);
+        } else {
+            onMainThread(this.registry, this::checkDeadlock);
+        }
+        return false;
+    }
+
+    /**
+     * Takes {@code train} out of the queue of this segment.
+     * 
+     * @return {@code true} if it was waiting
+     */
+    public boolean cancelWait(int train) {
+        synchronized (this.waiters) {
+            if (!this.waiters.removeIf(waiter -> waiter.train == train)) {
+                return false;
+            }
+            this.registry.getWaitForGraph().removeWait(train, this);
+            return true;
+        }
+    }
+
+    public int getWaitingCount() {
+        synchronized (this.waiters) {
+            return this.waiters.size();
+        }
+    }
+
+    public int getReservation() {
+        return trainOf(liveWord());
+    }
+
+    /**
+     * Gives up the reservation of {@code train} before it entered.
+     */
+    public void release(int train) {
+        update(w -> {
+            if (trainOf(w) != train) {
+                return w;
+            }
+            w = withTrain(w, NO_TRAIN);
+            return stateOf(w) == BlockingState.EXPECTING
+                    ? withState(w, BlockingState.OPEN) : w;
+        });
+    }
+
     public void onEnter(int train) {
-        if (train != this.reservation) {
+        if (train != getReservation()) {
             // should we do anything about this???
         }
-        setState(BlockingState.CLOSED);
+        update(w -> withState(w, BlockingState.CLOSED));
+    }
+
+    /**
+     * Called when {@code train} has left this segment, opening it for the
+     * next one unless another train reserved it in the meantime.
+     */
+    public void onLeave(int train) {
+        update(w -> {
+            int reservation = trainOf(w);
+            if (reservation != NO_TRAIN && reservation != train) {
+                // reserved by another train that is still on its way
+                return withState(w, BlockingState.EXPECTING);
+            }
+            return withState(withTrain(w, NO_TRAIN), BlockingState.OPEN);
+        });
+    }
+
+    /**
+     * Called when a cart rolled into this segment. The first cart in closes
+     * it. Carts are not trains, so the reservation it had at that point is
+     * taken as the one the carts came in under.
+     */
+    void cartEntered() {
+        if (this.occupants++ == 0) {
+            this.occupiedUnder = getReservation();
+            update(w -> withState(w, BlockingState.CLOSED));
+        }
+    }
+
+    /**
+     * Called when a cart rolled out of this segment. The last cart out gives
+     * up the reservation the carts came in under and opens the segment,
+     * unless another train reserved it in the meantime.
+     */
+    void cartLeft() {
+        checkState(this.occupants > 0, "no cart in %s", this);
+        if (--this.occupants == 0) {
+            int train = this.occupiedUnder;
+            this.occupiedUnder = NO_TRAIN;
+            onLeave(train);
+        }
+    }
+
+    public int getOccupantCount() {
+        return this.occupants;
+    }
+
+    /**
+     * Hands the reservation to the first waiting train, if the segment is
+     * open.
+     */
+    private void grantWaiters() {
+        while (getState() == BlockingState.OPEN) {
+            Waiter waiter;
+            synchronized (this.waiters) {
+                waiter = this.waiters.poll();
+                if (waiter == null) {
+                    return;
+                }
+                this.registry.getWaitForGraph().removeWait(waiter.train, this);
+            }
+            if (attemptReserve(waiter.train)) {
+                waiter.listener.onReservationGranted(this, waiter.train);
+                return;
+            }
+        }
     }
 
     public BlockingState getState() {
-        return this.state;
+        return effectiveStateOf(liveWord());
+    }
+
+    private void update(LongUnaryOperator change) {
+        long previous = updateLive(change);
+        getSurvivor().stateChanged(effectiveStateOf(previous));
+    }
+
+    /**
+     * Returns the word of this segment, or of the segment that absorbed it if
+     * it was merged away.
+     */
+    private long liveWord() {
+        Segment segment = this;
+        long current = segment.word.get();
+        while ((current & MERGED_BIT) != 0) {
+            segment = segment.absorbedBy;
+            current = segment.word.get();
+        }
+        return current;
+    }
+
+    /**
+     * Applies {@code change} to the word of this segment, or of the segment
+     * that absorbed it if it was merged away.
+     * 
+     * @return the word before the change
+     */
+    private long updateLive(LongUnaryOperator change) {
+        LongUnaryOperator unlessMerged =
+                w -> (w & MERGED_BIT) != 0 ? w : change.applyAsLong(w);
+        Segment segment = this;
+        long previous = segment.word.getAndUpdate(unlessMerged);
+        while ((previous & MERGED_BIT) != 0) {
+            segment = segment.absorbedBy;
+            previous = segment.word.getAndUpdate(unlessMerged);
+        }
+        return previous;
+    }
+
+    /**
+     * Updates signals and waiting trains on the main thread if the state
+     * is no longer {@code previous}.
+     */
+    void stateChanged(BlockingState previous) {
+        if (getState() != previous) {
+            onMainThread(this.registry, () -> signalStateChange(previous));
+        }
+    }
+
+    private void signalStateChange(BlockingState previous) {
+        notifySignals(previous);
+        grantWaiters();
+        checkDeadlock();
+    }
+
+    /**
+     * Reports trains stuck waiting for each other through this segment.
+     */
+    private void checkDeadlock() {
+        if (getReservation() != NO_TRAIN && getWaitingCount() > 0) {
+            this.registry.getWaitForGraph().check(this);
+        }
+    }
+
+    private static void onMainThread(SegmentRegistry registry,
+            Runnable task) {
+        World world = registry.getWorld();
+        MinecraftServer server =
+                world == null ? null : world.getMinecraftServer();
+        if (server == null || server.isCallingFromMinecraftThread()) {
+            task.run();
+        } else {
+            server.addScheduledTask(task);
+        }
+    }
+
+    /**
+     * Tells the loaded guarding signals about a state change. Signals in
+     * unloaded chunks catch up when they load.
+     */
+    private void notifySignals(BlockingState previous) {
+        this.guardingSignals.forEach(pos -> {
+            TileEntityRailSignal signal = resolveSignal(pos);
+            if (signal != null) {
+                signal.onStateChange(previous, getState());
+            }
+        });
     }
 
-    private void setState(BlockingState state) {
-        BlockingState prev = this.state;
-        this.state = checkNotNull(state);
-        for (TileEntityRailSignal signal : this.guardingSignals) {
-            signal.onStateChange(prev, this.state);
+    private TileEntityRailSignal resolveSignal(long pos) {
+        World world = this.registry.getWorld();
+        if (world == null) {
+            return null;
+        }
+        BlockPos blockPos = BlockPos.fromLong(pos);
+        if (!world.isBlockLoaded(blockPos)) {
+            return null;
         }
+        TileEntity te = world.getTileEntity(blockPos);
+        return te instanceof TileEntityRailSignal ? (TileEntityRailSignal) te
+                : null;
     }
 
     @Override
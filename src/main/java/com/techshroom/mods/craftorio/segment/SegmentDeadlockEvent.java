@@ -0,0 +1,68 @@
+/*
+ * This file is part of Craftorio, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) TechShroom Studios <https://techshoom.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.techshroom.mods.craftorio.segment;
+
+import java.util.List;
+
+import com.google.common.collect.ImmutableList;
+
+import net.minecraft.world.World;
+import net.minecraftforge.fml.common.eventhandler.Event;
+
+/**
+ * Posted on the Forge event bus when trains are found waiting for each other
+ * in a circle. The {@code i}-th train holds the {@code i}-th segment and waits
+ * for the next one, the last train waits for the first segment.
+ */
+public class SegmentDeadlockEvent extends Event {
+
+    private final World world;
+    private final List<Segment> segments;
+    private final List<Integer> trains;
+
+    public SegmentDeadlockEvent(World world, List<Segment> segments,
+            List<Integer> trains) {
+        this.world = world;
+        this.segments = ImmutableList.copyOf(segments);
+        this.trains = ImmutableList.copyOf(trains);
+    }
+
+    /**
+     * Returns the world of the segments, {@code null} if the registry was
+     * never looked up through a world.
+     */
+    public World getWorld() {
+        return this.world;
+    }
+
+    public List<Segment> getSegments() {
+        return this.segments;
+    }
+
+    public List<Integer> getTrains() {
+        return this.trains;
+    }
+
+}
@@ -0,0 +1,248 @@
+/*
+ * This file is part of Craftorio, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) TechShroom Studios <https://techshoom.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.techshroom.mods.craftorio.segment;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.techshroom.mods.craftorio.rail.RailChunk;
+import com.techshroom.mods.craftorio.util.LongHashSet;
+
+import net.minecraft.util.math.BlockPos;
+
+/**
+ * How the segments of a dimension border each other. Segments are the nodes,
+ * keyed by their canonical id, and every signal is an edge from the segment it
+ * is attached to into the segment it guards.
+ * 
+ * <p>
+ * Segments keep this up to date as signals are added and removed and as they
+ * merge and split, so it never has to be rebuilt from the rails. Like the
+ * rail graph it is not saved, signals add themselves as they load.
+ * </p>
+ */
+public final class SegmentGraph {
+
+    /**
+     * A signal, seen as an edge of the graph.
+     */
+    public static final class Edge {
+
+        private final long signal;
+        private final long outRail;
+        private final long inRail;
+        private int from;
+        private int to;
+
+        Edge(long signal, long outRail, int from, long inRail, int to) {
+            this.signal = signal;
+            this.outRail = outRail;
+            this.from = from;
+            this.inRail = inRail;
+            this.to = to;
+        }
+
+        /**
+         * Returns the packed position of the signal.
+         */
+        public long getSignal() {
+            return this.signal;
+        }
+
+        /**
+         * Returns the packed position of the rail the signal is attached to.
+         */
+        public long getOutRail() {
+            return this.outRail;
+        }
+
+        /**
+         * Returns the segment trains leave through this signal, or
+         * {@link RailChunk#NO_SEGMENT} if it wasn't known when the signal was
+         * added.
+         */
+        public int getFrom() {
+            return this.from;
+        }
+
+        /**
+         * Returns the packed position of the first rail behind the signal.
+         */
+        public long getInRail() {
+            return this.inRail;
+        }
+
+        /**
+         * Returns the segment the signal guards.
+         */
+        public int getTo() {
+            return this.to;
+        }
+
+        @Override
+        public String toString() {
+            return "Edge[signal=" + BlockPos.fromLong(this.signal) + ", "
+                    + this.from + " -> " + this.to + "]";
+        }
+
+    }
+
+    private final Map<Long, Edge> edges = new HashMap<>();
+    private final Map<Integer, Set<Edge>> outgoing = new HashMap<>();
+    private final Map<Integer, Set<Edge>> incoming = new HashMap<>();
+
+    SegmentGraph() {
+    }
+
+    public Edge getEdge(BlockPos signal) {
+        return this.edges.get(signal.toLong());
+    }
+
+    public Collection<Edge> getEdges() {
+        return Collections.unmodifiableCollection(this.edges.values());
+    }
+
+    /**
+     * Returns the signals leading out of segment {@code id}.
+     */
+    public Set<Edge> getOutgoing(int id) {
+        return view(this.outgoing, id);
+    }
+
+    /**
+     * Returns the signals guarding segment {@code id}.
+     */
+    public Set<Edge> getIncoming(int id) {
+        return view(this.incoming, id);
+    }
+
+    private static Set<Edge> view(Map<Integer, Set<Edge>> adjacency, int id) {
+        Set<Edge> set = adjacency.get(id);
+        return set == null ? Collections.emptySet()
+                : Collections.unmodifiableSet(set);
+    }
+
+    /**
+     * Adds the edge for a signal, replacing the one it had.
+     */
+    void addEdge(long signal, long outRail, int from, long inRail, int to) {
+        removeEdge(signal);
+        Edge edge = new Edge(signal, outRail, from, inRail, to);
+        this.edges.put(signal, edge);
+        attach(this.outgoing, from, edge);
+        attach(this.incoming, to, edge);
+    }
+
+    /**
+     * Removes the edge of a signal.
+     * 
+     * @return the removed edge, or {@code null} if there was none
+     */
+    Edge removeEdge(long signal) {
+        Edge edge = this.edges.remove(signal);
+        if (edge != null) {
+            detach(this.outgoing, edge.from, edge);
+            detach(this.incoming, edge.to, edge);
+        }
+        return edge;
+    }
+
+    private static void attach(Map<Integer, Set<Edge>> adjacency, int id,
+            Edge edge) {
+        if (id != RailChunk.NO_SEGMENT) {
+            adjacency.computeIfAbsent(id, k -> new HashSet<>()).add(edge);
+        }
+    }
+
+    private static void detach(Map<Integer, Set<Edge>> adjacency, int id,
+            Edge edge) {
+        Set<Edge> set = adjacency.get(id);
+        if (set != null && set.remove(edge) && set.isEmpty()) {
+            adjacency.remove(id);
+        }
+    }
+
+    /**
+     * Moves every edge of {@code loser} to {@code winner}.
+     */
+    void merge(int winner, int loser) {
+        Set<Edge> out = this.outgoing.remove(loser);
+        if (out != null) {
+            for (Edge edge : out) {
+                edge.from = winner;
+                attach(this.outgoing, winner, edge);
+            }
+        }
+        Set<Edge> in = this.incoming.remove(loser);
+        if (in != null) {
+            for (Edge edge : in) {
+                edge.to = winner;
+                attach(this.incoming, winner, edge);
+            }
+        }
+    }
+
+    /**
+     * Moves the edges of {@code source} whose rail on that side is in
+     * {@code moved} to {@code target}.
+     */
+    void split(int source, int target, LongHashSet moved) {
+        for (Edge edge : new ArrayList<>(getOutgoing(source))) {
+            if (moved.contains(edge.outRail)) {
+                detach(this.outgoing, source, edge);
+                edge.from = target;
+                attach(this.outgoing, target, edge);
+            }
+        }
+        for (Edge edge : new ArrayList<>(getIncoming(source))) {
+            if (moved.contains(edge.inRail)) {
+                detach(this.incoming, source, edge);
+                edge.to = target;
+                attach(this.incoming, target, edge);
+            }
+        }
+    }
+
+    /**
+     * Returns the ids of the segments a train can enter straight from segment
+     * {@code id}.
+     */
+    public List<Integer> getSuccessors(int id) {
+        List<Integer> successors = new ArrayList<>();
+        for (Edge edge : getOutgoing(id)) {
+            if (!successors.contains(edge.to)) {
+                successors.add(edge.to);
+            }
+        }
+        return successors;
+    }
+
+}
@@ -0,0 +1,190 @@
+/*
+ * This file is part of Craftorio, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) TechShroom Studios <https://techshoom.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.techshroom.mods.craftorio.segment;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import com.techshroom.mods.craftorio.rail.Rail;
+import com.techshroom.mods.craftorio.util.IntLongHashMap;
+import com.techshroom.mods.craftorio.util.LongHashSet;
+
+import net.minecraft.entity.Entity;
+import net.minecraft.entity.item.EntityMinecart;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.World;
+import net.minecraftforge.common.MinecraftForge;
+import net.minecraftforge.fml.common.eventhandler.SubscribeEvent;
+import net.minecraftforge.fml.common.gameevent.TickEvent;
+
+/**
+ * Which carts are in which segment of a dimension. Carts report the rail they
+ * are on every tick, but only a report from another rail than last time looks
+ * up the segment, so keeping segments closed costs a lookup per rail crossed
+ * instead of a scan for carts every tick. The first cart to enter a segment
+ * closes it, the last one to leave opens it again.
+ * 
+ * <p>
+ * Carts that are killed, unloaded or derailed never cross into another
+ * segment, so a sweep over the tracked carts only drops those every
+ * {@value #SWEEP_INTERVAL} ticks.
+ * </p>
+ * 
+ * <p>
+ * Main thread only.
+ * </p>
+ */
+public final class SegmentOccupancy {
+
+    private static final int SWEEP_INTERVAL = 20;
+
+    private static final class Hooks {
+
+        @SubscribeEvent
+        public void onWorldTick(TickEvent.WorldTickEvent event) {
+            World world = event.world;
+            if (event.phase == TickEvent.Phase.END && !world.isRemote
+                    && world.getTotalWorldTime() % SWEEP_INTERVAL == 0) {
+                SegmentRegistry.get(world).getOccupancy().sweep(world);
+            }
+        }
+
+    }
+
+    public static void addHooks() {
+        MinecraftForge.EVENT_BUS.register(new Hooks());
+    }
+
+    /**
+     * Records that {@code cart} is on the rail at {@code pos}. Cheap when the
+     * cart is still on the rail it was on before. The entity id of the cart
+     * is what the segment sees as the entering train.
+     */
+    public static void onCartAt(World world, EntityMinecart cart,
+            BlockPos pos) {
+        SegmentOccupancy occupancy = SegmentRegistry.get(world).getOccupancy();
+        int id = cart.getEntityId();
+        long key = pos.toLong();
+        if (occupancy.rails.containsKey(id)
+                && occupancy.rails.get(id) == key) {
+            return;
+        }
+        Rail rail = Rail.at(world, pos);
+        Segment segment = rail == null ? null : rail.getSegment();
+        if (segment != null) {
+            occupancy.moveTo(id, key, segment);
+        }
+    }
+
+    /**
+     * The segment each cart was last seen in, by entity id. May have been
+     * merged away since.
+     */
+    private final Map<Integer, Segment> carts = new HashMap<>();
+    /**
+     * The packed position of the rail each cart was last seen on, by entity
+     * id.
+     */
+    private final IntLongHashMap rails = new IntLongHashMap(0);
+
+    void moveTo(int cart, long rail, Segment segment) {
+        this.rails.put(cart, rail);
+        moveTo(cart, segment);
+    }
+
+    void moveTo(int cart, Segment segment) {
+        Segment previous = this.carts.put(cart, segment);
+        if (previous != null) {
+            previous = previous.getSurvivor();
+            if (previous == segment) {
+                return;
+            }
+            previous.cartLeft();
+        }
+        segment.cartEntered();
+    }
+
+    /**
+     * Forgets {@code cart}, opening its segment if it was the last one in
+     * there.
+     */
+    public void remove(int cart) {
+        this.rails.remove(cart);
+        Segment previous = this.carts.remove(cart);
+        if (previous != null) {
+            previous.getSurvivor().cartLeft();
+        }
+    }
+
+    /**
+     * Returns the segment {@code cart} is in, or {@code null} if it is not on
+     * a tracked rail.
+     */
+    public Segment getSegmentOf(int cart) {
+        Segment segment = this.carts.get(cart);
+        return segment == null ? null : segment.getSurvivor();
+    }
+
+    /**
+     * Moves the carts on {@code moved}, rails that are being split off
+     * {@code from}, over to {@code to}.
+     */
+    void split(Segment from, Segment to, LongHashSet moved) {
+        this.rails.forEachKey(cart -> {
+            if (moved.contains(this.rails.get(cart))
+                    && getSegmentOf(cart) == from) {
+                moveTo(cart, to);
+            }
+        });
+    }
+
+    public int getTrackedCartCount() {
+        return this.carts.size();
+    }
+
+    private void sweep(World world) {
+        for (Iterator<Map.Entry<Integer, Segment>> it =
+                this.carts.entrySet().iterator(); it.hasNext();) {
+            Map.Entry<Integer, Segment> entry = it.next();
+            if (!isOnRail(world, world.getEntityByID(entry.getKey()))) {
+                it.remove();
+                this.rails.remove(entry.getKey());
+                entry.getValue().getSurvivor().cartLeft();
+            }
+        }
+    }
+
+    private static boolean isOnRail(World world, Entity cart) {
+        if (cart == null || cart.isDead) {
+            return false;
+        }
+        BlockPos pos = new BlockPos(cart);
+        // carts on slopes can sit in the block above the rail
+        return Rail.at(world, pos) != null
+                || Rail.at(world, pos.down()) != null;
+    }
+
+}
@@ -0,0 +1,161 @@
+/*
+ * This file is part of Craftorio, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) TechShroom Studios <https://techshoom.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.techshroom.mods.craftorio.segment;
+
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+import com.google.common.base.Throwables;
+import com.techshroom.mods.craftorio.util.GeneralUtility;
+import com.techshroom.mods.craftorio.util.LongIntHashMap;
+
+/**
+ * The colours segments are drawn in. Each segment id gets three shades picked
+ * from a hash of the id, worked out the first time they are asked for and
+ * cached as packed ARGB after that. Safe to use from any thread.
+ */
+public final class SegmentPalette {
+
+    /**
+     * The main colour of a segment.
+     */
+    public static final int BASE = 0;
+    /**
+     * A lighter shade, for highlights.
+     */
+    public static final int LIGHTER = 1;
+    /**
+     * A shade for the links between rails.
+     */
+    public static final int CONNECTOR = 2;
+
+    private static final int SHADES = 3;
+    /**
+     * Start over once this many ids are cached. Colours never go stale, they
+     * only depend on the id, so this is all that keeps the cache from growing
+     * over a long session.
+     */
+    private static final int MAX_CACHED = 8192;
+    private static final int NO_SLOT = -1;
+
+    /**
+     * Cached segment ids to their slot in {@link #colors}. Guarded by the
+     * class.
+     */
+    private static final LongIntHashMap slots = new LongIntHashMap(NO_SLOT);
+    private static int[] colors = new int[16 * SHADES];
+    private static int nextSlot;
+    private static final MessageDigest md5;
+    static {
+        try {
+            md5 = MessageDigest.getInstance("md5");
+        } catch (NoSuchAlgorithmException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    /**
+     * Returns the packed ARGB colour of segment {@code id} in the given shade.
+     * 
+     * @param shade one of {@link #BASE}, {@link #LIGHTER} and
+     *        {@link #CONNECTOR}
+     */
+    public static synchronized int getColor(int id, int shade) {
+        int slot = slots.get(id);
+        if (slot == NO_SLOT) {
+            slot = cache(id);
+        }
+        return colors[slot * SHADES + shade];
+    }
+
+    private static int cache(int id) {
+        if (slots.size() >= MAX_CACHED) {
+            slots.clear();
+            nextSlot = 0;
+        }
+        int slot = nextSlot++;
+        if (slot * SHADES == colors.length) {
+            colors = Arrays.copyOf(colors, colors.length * 2);
+        }
+        int[] hsl = notRandomColorShift(id);
+        int base = slot * SHADES;
+        colors[base + BASE] =
+                GeneralUtility.hslToColor(hsl[0], hsl[1], hsl[2]).getRGB();
+        colors[base + LIGHTER] = GeneralUtility
+                .hslToColor(hsl[0] + 10, hsl[1], hsl[2] - 5).getRGB();
+        colors[base + CONNECTOR] = GeneralUtility
+                .hslToColor(hsl[0] - 10, hsl[1], hsl[2] + 5).getRGB();
+        slots.put(id, slot);
+        return slot;
+    }
+
+    // Algorithm from Textual IRC Client.
+    // License in LICENSE-textual.txt
+    private static int[] notRandomColorShift(int id) {
+        int stringHash32 = Math.abs(new BigInteger(1,
+                md5.digest(GeneralUtility.intToBytes(id))).intValue());
+        int shash = stringHash32 >> 1;
+        int lhash = stringHash32 >> 2;
+
+        int h = (stringHash32 % 360);
+
+        int s;
+        int l;
+
+        s = (shash % 50 + 35); // 35 - 85
+        l = (lhash % 38 + 20); // 20 - 58
+
+        // Lower lightness for Yello, Green, Cyan
+        if (h > 45 && h <= 195) {
+            l = (lhash % 21 + 20); // 20 - 41
+
+            if (l > 31) {
+                s = (shash % 40 + 55); // 55 - 95
+            } else {
+                s = (shash % 35 + 65); // 65 - 95
+            }
+        }
+
+        // Give the reds a bit more saturation
+        if (h <= 25 || h >= 335) {
+            s = (shash % 33 + 45); // 45 - 78
+        }
+
+        // Increase lightness for brighter colors...
+        l += 15;
+        l = Math.min(100, l);
+        // SATUREATE
+        s += 200;
+        s = Math.min(360, s);
+
+        return new int[] { h, s, l };
+    }
+
+    private SegmentPalette() {
+    }
+
+}
@@ -0,0 +1,535 @@
+/*
+ * This file is part of Craftorio, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) TechShroom Studios <https://techshoom.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.techshroom.mods.craftorio.segment;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+import com.techshroom.mods.craftorio.CraftorioMod;
+import com.techshroom.mods.craftorio.Constants;
+import com.techshroom.mods.craftorio.rail.RailGraph;
+
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.world.World;
+import net.minecraft.world.WorldSavedData;
+import net.minecraft.world.storage.MapStorage;
+
+/**
+ * Owns the {@link Segment} ids of a single dimension. Ids are handed out by
+ * {@link #allocate()} and given back once nothing refers to them anymore;
+ * freed ids go on a free-list and are reused before the id space grows.
+ * 
+ * <p>
+ * Ids form a disjoint-set forest (union by size, path compression). Merging
+ * two segments with {@link #union(Segment, Segment)} only re-points one root,
+ * rails keep their old id and resolve the canonical segment through
+ * {@link #get(int)} the next time they look. An id is kept alive while any
+ * rail stores it (see {@link #retain(int)}) or any other id points to it.
+ * </p>
+ */
+public final class SegmentRegistry extends WorldSavedData {
+
+    private static final String NAME = Constants.MOD_ID + "_segments";
+    private static final int INITIAL_CAPACITY = 16;
+    private static final int FREE = -1;
+
+    public static SegmentRegistry get(World world) {
+        MapStorage storage = world.getPerWorldStorage();
+        SegmentRegistry registry = (SegmentRegistry) storage
+                .getOrLoadData(SegmentRegistry.class, NAME);
+        if (registry == null) {
+            registry = new SegmentRegistry(NAME);
+            storage.setData(NAME, registry);
+        }
+        registry.remote = world.isRemote;
+        registry.world = world;
+        // the server sends what changed to clients once per tick
+        registry.graph.setTrackingChanges(!world.isRemote);
+        return registry;
+    }
+
+    /**
+     * Segment objects, only set for root ids.
+     */
+    private Segment[] segments = new Segment[INITIAL_CAPACITY];
+    /**
+     * Parent of each id, the id itself for roots, or {@link #FREE}.
+     */
+    private int[] parent = newParentArray(INITIAL_CAPACITY);
+    /**
+     * Number of rails storing exactly this id.
+     */
+    private int[] refs = new int[INITIAL_CAPACITY];
+    /**
+     * For roots, the number of rails in the whole set.
+     */
+    private int[] size = new int[INITIAL_CAPACITY];
+    /**
+     * Number of other ids whose parent is this id.
+     */
+    private int[] children = new int[INITIAL_CAPACITY];
+    private int[] freeIds = new int[INITIAL_CAPACITY];
+    private int freeCount;
+    /**
+     * Ids found on loaded rails after this registry lost track of them, and
+     * the ids skipped over to restore them. No saved count covers the rails
+     * in chunks that haven't loaded yet, so these ids are never freed or
+     * handed out again.
+     */
+    private final BitSet pinned = new BitSet();
+    /**
+     * One past the highest id ever handed out since the last compaction.
+     */
+    private int nextId;
+    /**
+     * Client registries only mirror ids chosen by the server.
+     */
+    private boolean remote;
+    /**
+     * The world this registry belongs to, {@code null} until it is first
+     * looked up through {@link #get(World)}.
+     */
+    private World world;
+    /**
+     * The loaded rails of this dimension. Not saved, rails add themselves as
+     * they load.
+     */
+    private final RailGraph graph = new RailGraph();
+    /**
+     * How the segments of this dimension border each other. Not saved either.
+     */
+    private final SegmentGraph segmentGraph = new SegmentGraph();
+    /**
+     * Which trains wait for which segments. Not saved, trains queue again
+     * after a restart.
+     */
+    private final WaitForGraph waitForGraph = new WaitForGraph();
+    /**
+     * Which carts are in which segment. Not saved, carts are seen again as
+     * soon as they move.
+     */
+    private final SegmentOccupancy occupancy = new SegmentOccupancy();
+
+    // Must be public, MapStorage instantiates this reflectively.
+    public SegmentRegistry(String name) {
+        super(name);
+    }
+
+    private static int[] newParentArray(int length) {
+        int[] array = new int[length];
+        Arrays.fill(array, FREE);
+        return array;
+    }
+
+    public boolean isRemote() {
+        return this.remote;
+    }
+
+    public World getWorld() {
+        return this.world;
+    }
+
+    public RailGraph getGraph() {
+        return this.graph;
+    }
+
+    public SegmentGraph getSegmentGraph() {
+        return this.segmentGraph;
+    }
+
+    public WaitForGraph getWaitForGraph() {
+        return this.waitForGraph;
+    }
+
+    public SegmentOccupancy getOccupancy() {
+        return this.occupancy;
+    }
+
+    private boolean isUsed(int id) {
+        return id >= 0 && id < this.nextId && this.parent[id] != FREE;
+    }
+
+    /**
+     * Returns the canonical segment for {@code id}, or {@code null} if the id
+     * is not in use.
+     */
+    public Segment get(int id) {
+        if (!isUsed(id)) {
+            return null;
+        }
+        return this.segments[find(id)];
+    }
+
+    /**
+     * Returns the canonical id for {@code id}, compressing the path on the
+     * way.
+     */
+    int find(int id) {
+        int root = id;
+        while (this.parent[root] != root) {
+            root = this.parent[root];
+        }
+        int node = id;
+        while (node != root) {
+            int next = this.parent[node];
+            if (next != root) {
+                this.parent[node] = root;
+                this.children[next]--;
+                this.children[root]++;
+            }
+            if (node != id) {
+                // an alias in the middle of the path may be unused now
+                releaseIfUnused(node);
+            }
+            node = next;
+        }
+        return root;
+    }
+
+    public Segment allocate() {
+        int id = FREE;
+        while (this.freeCount > 0) {
+            int candidate = this.freeIds[--this.freeCount];
+            // restore() may have brought a freed id back to life, skip it
+            if (!isUsed(candidate) && !this.pinned.get(candidate)) {
+                id = candidate;
+                break;
+            }
+        }
+        if (id == FREE) {
+            do {
+                id = this.nextId++;
+            } while (this.pinned.get(id));
+            ensureCapacity(this.nextId);
+        }
+        return createRoot(id);
+    }
+
+    private Segment createRoot(int id) {
+        Segment segment = new Segment(this, id);
+        this.segments[id] = segment;
+        this.parent[id] = id;
+        this.refs[id] = 0;
+        this.size[id] = 0;
+        this.children[id] = 0;
+        markDirty();
+        return segment;
+    }
+
+    /**
+     * Returns the segment for an id received from the server, re-creating it
+     * as a root if this registry lost track of it. The server uses
+     * {@link #adopt(int)} for ids read back from storage.
+     * 
+     * <p>
+     * On clients the id is always made a root: the server only sends
+     * canonical ids, so an id that is still an alias here must have been
+     * freed and reused on the server.
+     * </p>
+     */
+    public Segment restore(int id) {
+        checkArgument(id >= 0, "negative segment id %s", id);
+        Segment segment = get(id);
+        if (segment != null) {
+            if (!this.remote || segment.getId() == id) {
+                return segment;
+            }
+            this.children[this.parent[id]]--;
+            this.parent[id] = id;
+            segment = new Segment(this, id);
+            this.segments[id] = segment;
+            return segment;
+        }
+        if (id >= this.nextId) {
+            ensureCapacity(id + 1);
+            for (int skipped = id - 1; skipped >= this.nextId; skipped--) {
+                pushFree(skipped);
+            }
+            this.nextId = id + 1;
+        }
+        return createRoot(id);
+    }
+
+    /**
+     * Called on the server for each loaded rail that stores {@code id}. Rails
+     * of known ids are covered by the saved counts already. An unknown id is
+     * re-created, pinned together with the ids skipped to reach it, and from
+     * then on every loaded rail storing it is counted.
+     */
+    public Segment adopt(int id) {
+        checkArgument(id >= 0, "negative segment id %s", id);
+        if (isUsed(id) && !this.pinned.get(id)) {
+            return get(id);
+        }
+        if (!isUsed(id)) {
+            CraftorioMod.getLogger().warn("Adopting unknown segment id " + id);
+            if (id >= this.nextId) {
+                ensureCapacity(id + 1);
+                // rails in other chunks may store these too
+                this.pinned.set(this.nextId, id);
+                this.nextId = id + 1;
+            }
+            createRoot(id);
+            this.pinned.set(id);
+        }
+        retain(id);
+        return get(id);
+    }
+
+    /**
+     * Replays a merge that the server decided on.
+     */
+    public void replayMerge(int winnerId, int loserId) {
+        Segment winner = restore(winnerId);
+        if (get(loserId) != winner) {
+            mergeInto(winner, restore(loserId));
+        }
+    }
+
+    /**
+     * Records that a rail now stores {@code id}.
+     */
+    public void retain(int id) {
+        if (this.remote) {
+            return;
+        }
+        checkState(isUsed(id), "retaining free segment id %s", id);
+        this.refs[id]++;
+        this.size[find(id)]++;
+        markDirty();
+    }
+
+    /**
+     * Records that a rail no longer stores {@code id}, freeing it if nothing
+     * else refers to it.
+     */
+    public void release(int id) {
+        if (this.remote) {
+            return;
+        }
+        checkState(isUsed(id) && this.refs[id] > 0,
+                "releasing unreferenced segment id %s", id);
+        this.refs[id]--;
+        this.size[find(id)]--;
+        markDirty();
+        releaseIfUnused(id);
+    }
+
+    /**
+     * Merges the two segments, returning the one that survives. The smaller
+     * segment is re-pointed at the larger one.
+     */
+    public Segment union(Segment a, Segment b) {
+        if (a == b) {
+            return a;
+        }
+        if (this.size[a.getId()] < this.size[b.getId()]) {
+            Segment swap = a;
+            a = b;
+            b = swap;
+        }
+        mergeInto(a, b);
+        return a;
+    }
+
+    /**
+     * Merges {@code loser} into {@code winner} without comparing sizes. Used
+     * by clients to replay a merge decided by the server.
+     */
+    public void mergeInto(Segment winner, Segment loser) {
+        int winnerId = winner.getId();
+        int loserId = loser.getId();
+        checkArgument(this.segments[winnerId] == winner
+                && this.segments[loserId] == loser, "not both roots");
+        if (winner == loser) {
+            return;
+        }
+        this.parent[loserId] = winnerId;
+        this.children[winnerId]++;
+        this.size[winnerId] += this.size[loserId];
+        this.size[loserId] = 0;
+        this.segments[loserId] = null;
+        winner.absorb(loser);
+        this.segmentGraph.merge(winnerId, loserId);
+        markDirty();
+    }
+
+    /**
+     * Returns the number of rails, loaded or not, in the segment.
+     */
+    int sizeOf(Segment segment) {
+        return this.size[segment.getId()];
+    }
+
+    private void releaseIfUnused(int id) {
+        while (isUsed(id) && this.refs[id] == 0 && this.children[id] == 0
+                && !this.pinned.get(id)) {
+            int up = this.parent[id];
+            if (up == id) {
+                // an empty root, the whole segment is gone
+                checkState(this.size[id] == 0, "empty root %s has size", id);
+                free(id);
+                return;
+            }
+            free(id);
+            this.children[up]--;
+            id = up;
+        }
+    }
+
+    private void free(int id) {
+        this.segments[id] = null;
+        this.parent[id] = FREE;
+        pushFree(id);
+        markDirty();
+    }
+
+    private void pushFree(int id) {
+        if (this.freeCount == this.freeIds.length) {
+            this.freeIds = Arrays.copyOf(this.freeIds, this.freeCount * 2);
+        }
+        this.freeIds[this.freeCount++] = id;
+    }
+
+    private void ensureCapacity(int length) {
+        if (length <= this.segments.length) {
+            return;
+        }
+        resize(Math.max(length, this.segments.length * 2));
+    }
+
+    private void resize(int newLength) {
+        int oldLength = this.parent.length;
+        this.segments = Arrays.copyOf(this.segments, newLength);
+        this.parent = Arrays.copyOf(this.parent, newLength);
+        if (newLength > oldLength) {
+            Arrays.fill(this.parent, oldLength, newLength, FREE);
+        }
+        this.refs = Arrays.copyOf(this.refs, newLength);
+        this.size = Arrays.copyOf(this.size, newLength);
+        this.children = Arrays.copyOf(this.children, newLength);
+    }
+
+    /**
+     * Flattens every alias onto its root, frees aliases no rail stores
+     * anymore, drops trailing unused ids and rebuilds the free-list so that
+     * the lowest ids are reused first. Live and pinned ids are never
+     * renumbered or reused, rails in unloaded chunks still refer to them.
+     */
+    private void compact() {
+        for (int id = 0; id < this.nextId; id++) {
+            if (isUsed(id)) {
+                find(id);
+            }
+        }
+        for (int id = 0; id < this.nextId; id++) {
+            releaseIfUnused(id);
+        }
+        while (this.nextId > 0 && this.parent[this.nextId - 1] == FREE
+                && !this.pinned.get(this.nextId - 1)) {
+            this.nextId--;
+        }
+        this.freeCount = 0;
+        for (int id = this.nextId - 1; id >= 0; id--) {
+            if (this.parent[id] == FREE && !this.pinned.get(id)) {
+                pushFree(id);
+            }
+        }
+        int capacity = Math.max(INITIAL_CAPACITY, this.nextId);
+        if (this.segments.length > capacity * 2) {
+            resize(capacity);
+        }
+    }
+
+    @Override
+    public void readFromNBT(NBTTagCompound nbt) {
+        int[] ids = nbt.getIntArray("ids");
+        int[] parents = nbt.getIntArray("parents");
+        int[] railCounts = nbt.getIntArray("railCounts");
+        this.pinned.clear();
+        for (int id : nbt.getIntArray("pinned")) {
+            this.pinned.set(id);
+        }
+        int length = Math.max(INITIAL_CAPACITY, this.pinned.length());
+        for (int id : ids) {
+            length = Math.max(length, id + 1);
+        }
+        this.segments = new Segment[0];
+        this.parent = new int[0];
+        resize(length);
+        this.nextId = this.pinned.length();
+        for (int i = 0; i < ids.length; i++) {
+            int id = ids[i];
+            this.parent[id] = parents.length > i ? parents[i] : id;
+            this.refs[id] = railCounts[i];
+            this.nextId = Math.max(this.nextId, id + 1);
+        }
+        for (int i = 0; i < ids.length; i++) {
+            int id = ids[i];
+            if (this.parent[id] == id) {
+                this.segments[id] = new Segment(this, id);
+            } else {
+                this.children[this.parent[id]]++;
+            }
+        }
+        for (int i = 0; i < ids.length; i++) {
+            int id = ids[i];
+            this.size[find(id)] += this.refs[id];
+        }
+        compact();
+    }
+
+    @Override
+    public NBTTagCompound writeToNBT(NBTTagCompound nbt) {
+        compact();
+        int live = 0;
+        for (int id = 0; id < this.nextId; id++) {
+            if (isUsed(id)) {
+                live++;
+            }
+        }
+        int[] ids = new int[live];
+        int[] parents = new int[live];
+        int[] railCounts = new int[live];
+        int index = 0;
+        for (int id = 0; id < this.nextId; id++) {
+            if (isUsed(id)) {
+                ids[index] = id;
+                parents[index] = this.parent[id];
+                railCounts[index] = this.refs[id];
+                index++;
+            }
+        }
+        nbt.setIntArray("ids", ids);
+        nbt.setIntArray("parents", parents);
+        nbt.setIntArray("railCounts", railCounts);
+        nbt.setIntArray("pinned", this.pinned.stream().toArray());
+        return nbt;
+    }
+
+}
@@ -0,0 +1,70 @@
+/*
+ * This file is part of Craftorio, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) TechShroom Studios <https://techshoom.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.techshroom.mods.craftorio.segment;
+
+import net.minecraft.world.World;
+import net.minecraftforge.fml.common.eventhandler.Event;
+
+/**
+ * Posted on the Forge event bus when two segments reserved by different
+ * trains were merged. The merged segment keeps one reservation, the other
+ * train has to ask again.
+ */
+public class SegmentReservationLostEvent extends Event {
+
+    private final World world;
+    private final Segment segment;
+    private final int train;
+
+    public SegmentReservationLostEvent(World world, Segment segment,
+            int train) {
+        this.world = world;
+        this.segment = segment;
+        this.train = train;
+    }
+
+    /**
+     * Returns the world of the segment, {@code null} if the registry was
+     * never looked up through a world.
+     */
+    public World getWorld() {
+        return this.world;
+    }
+
+    /**
+     * Returns the merged segment.
+     */
+    public Segment getSegment() {
+        return this.segment;
+    }
+
+    /**
+     * Returns the train whose reservation was dropped.
+     */
+    public int getTrain() {
+        return this.train;
+    }
+
+}
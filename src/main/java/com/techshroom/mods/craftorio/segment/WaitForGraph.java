@@ -0,0 +1,196 @@
+/*
+ * This file is part of Craftorio, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) TechShroom Studios <https://techshoom.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.techshroom.mods.craftorio.segment;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.techshroom.mods.craftorio.CraftorioMod;
+
+import net.minecraftforge.common.MinecraftForge;
+
+/**
+ * Which trains wait for which segments of a dimension. Together with the
+ * reservation of each segment this is a wait-for graph: a train waits for a
+ * segment, the segment waits for the train holding it.
+ * 
+ * <p>
+ * A deadlock is a cycle in that graph, and a new cycle can only appear when an
+ * edge is added. So instead of searching the whole graph every tick,
+ * {@link #check(Segment)} is run whenever a train starts waiting for a segment
+ * or a segment with waiting trains gets a new holder, and only searches what
+ * is reachable from that segment.
+ * </p>
+ */
+public final class WaitForGraph {
+
+    /**
+     * The segments each train waits for, possibly merged away since.
+     */
+    private final Map<Integer, List<Segment>> waits = new HashMap<>();
+    /**
+     * The cycles reported so far and still standing, by their sorted trains.
+     */
+    private final Map<List<Integer>, List<Segment>> reported =
+            new HashMap<>();
+    private long deadlocksFound;
+
+    synchronized void addWait(int train, Segment segment) {
+        this.waits.computeIfAbsent(train, t -> new ArrayList<>(1))
+                .add(segment);
+    }
+
+    synchronized void removeWait(int train, Segment segment) {
+        List<Segment> segments = this.waits.get(train);
+        if (segments != null && segments.remove(segment)
+                && segments.isEmpty()) {
+            this.waits.remove(train);
+        }
+        this.reported.keySet().removeIf(trains -> trains.contains(train));
+    }
+
+    /**
+     * Returns the segments {@code train} waits for.
+     */
+    public synchronized List<Segment> getWaits(int train) {
+        List<Segment> segments = this.waits.get(train);
+        if (segments == null) {
+            return Collections.emptyList();
+        }
+        List<Segment> live = new ArrayList<>(segments.size());
+        for (Segment segment : segments) {
+            live.add(segment.getSurvivor());
+        }
+        return live;
+    }
+
+    public synchronized int getWaitingTrainCount() {
+        return this.waits.size();
+    }
+
+    /**
+     * Returns how many deadlocks were reported since this graph was created.
+     */
+    public synchronized long getDeadlocksFound() {
+        return this.deadlocksFound;
+    }
+
+    /**
+     * Looks for a cycle of waiting trains through {@code start}, and reports
+     * it if there is one that wasn't reported before. A cycle is reported
+     * again only once it broke up and formed anew.
+     * 
+     * @return the segments of the cycle, in the order of
+     *         {@link SegmentDeadlockEvent}, or an empty list
+     */
+    public List<Segment> check(Segment start) {
+        List<Segment> cycle;
+        List<Integer> trains;
+        synchronized (this) {
+            cycle = findCycle(start.getSurvivor());
+            if (cycle.isEmpty()) {
+                return cycle;
+            }
+            trains = new ArrayList<>(cycle.size());
+            for (Segment segment : cycle) {
+                trains.add(segment.getReservation());
+            }
+            this.reported.entrySet()
+                    .removeIf(e -> !stillStands(e.getValue(), e.getKey()));
+            List<Integer> key = new ArrayList<>(trains);
+            Collections.sort(key);
+            if (this.reported.containsKey(key)) {
+                return cycle;
+            }
+            this.reported.put(key, cycle);
+            this.deadlocksFound++;
+        }
+        CraftorioMod.getLogger().warn("Trains " + trains
+                + " are deadlocked over segments " + cycle);
+        MinecraftForge.EVENT_BUS.post(new SegmentDeadlockEvent(
+                start.getRegistry().getWorld(), cycle, trains));
+        return cycle;
+    }
+
+    /**
+     * Returns {@code true} if the holder of each segment of {@code cycle} is
+     * still one of {@code trains} and still waits for the next segment.
+     */
+    private boolean stillStands(List<Segment> cycle, List<Integer> trains) {
+        for (int i = 0; i < cycle.size(); i++) {
+            int holder = cycle.get(i).getSurvivor().getReservation();
+            Segment next = cycle.get((i + 1) % cycle.size()).getSurvivor();
+            if (!trains.contains(holder)
+                    || !getWaits(holder).contains(next)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private List<Segment> findCycle(Segment start) {
+        // each segment reached, mapped to the segment whose holder waits on it
+        Map<Segment, Segment> reachedFrom = new IdentityHashMap<>();
+        Deque<Segment> stack = new ArrayDeque<>();
+        reachedFrom.put(start, null);
+        stack.push(start);
+        while (!stack.isEmpty()) {
+            Segment segment = stack.pop();
+            int holder = segment.getReservation();
+            List<Segment> next = this.waits.get(holder);
+            if (holder == Segment.NO_TRAIN || next == null) {
+                continue;
+            }
+            for (Segment waitedFor : next) {
+                waitedFor = waitedFor.getSurvivor();
+                if (waitedFor == segment) {
+                    // a train queued behind itself is not stuck
+                    continue;
+                }
+                if (waitedFor == start) {
+                    List<Segment> cycle = new ArrayList<>();
+                    for (Segment s = segment; s != null; s = reachedFrom
+                            .get(s)) {
+                        cycle.add(s);
+                    }
+                    Collections.reverse(cycle);
+                    return cycle;
+                }
+                if (!reachedFrom.containsKey(waitedFor)) {
+                    reachedFrom.put(waitedFor, segment);
+                    stack.push(waitedFor);
+                }
+            }
+        }
+        return Collections.emptyList();
+    }
+
+}
@@ -0,0 +1,100 @@
+/*
+ * This file is part of Craftorio, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) TechShroom Studios <https://techshoom.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.techshroom.mods.craftorio.util;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.world.World;
+
+/**
+ * Positions waiting for their chunk to load, grouped by world and chunk.
+ * Holds no references to tile entities or chunks, and only weakly to worlds,
+ * so nothing is kept alive by work that will never happen.
+ * 
+ * <p>
+ * Safe to use from the client and server threads at once.
+ * </p>
+ */
+public final class ChunkWaitList {
+
+    private final Map<World, Map<Long, LongHashSet>> waiting =
+            new WeakHashMap<>();
+
+    public void add(World world, BlockPos pos) {
+        add(world, pos, pos);
+    }
+
+    /**
+     * Adds {@code pos} to wait for the chunk of {@code waitFor}.
+     */
+    public synchronized void add(World world, BlockPos pos, BlockPos waitFor) {
+        long chunk =
+                ChunkPos.chunkXZ2Int(waitFor.getX() >> 4, waitFor.getZ() >> 4);
+        this.waiting.computeIfAbsent(world, w -> new HashMap<>())
+                .computeIfAbsent(chunk, c -> new LongHashSet())
+                .add(pos.toLong());
+    }
+
+    public synchronized void remove(World world, BlockPos pos) {
+        Map<Long, LongHashSet> chunks = this.waiting.get(world);
+        if (chunks == null) {
+            return;
+        }
+        long chunk = ChunkPos.chunkXZ2Int(pos.getX() >> 4, pos.getZ() >> 4);
+        LongHashSet positions = chunks.get(chunk);
+        if (positions != null && positions.remove(pos.toLong())
+                && positions.size() == 0) {
+            chunks.remove(chunk);
+        }
+    }
+
+    /**
+     * Removes and returns the packed positions waiting on a chunk.
+     * 
+     * @return the positions, or {@code null} if there are none
+     */
+    public synchronized LongHashSet take(World world, int chunkX,
+            int chunkZ) {
+        Map<Long, LongHashSet> chunks = this.waiting.get(world);
+        if (chunks == null) {
+            return null;
+        }
+        LongHashSet positions =
+                chunks.remove(ChunkPos.chunkXZ2Int(chunkX, chunkZ));
+        if (chunks.isEmpty()) {
+            this.waiting.remove(world);
+        }
+        return positions;
+    }
+
+    public synchronized void clear(World world) {
+        this.waiting.remove(world);
+    }
+
+}
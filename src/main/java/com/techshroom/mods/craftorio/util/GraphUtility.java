@@ -24,35 +24,139 @@
  */
 package com.techshroom.mods.craftorio.util;
 
-import java.util.Deque;
-import java.util.LinkedList;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Set;
+import java.util.function.Function;
 
 import org.jgrapht.Graphs;
 import org.jgrapht.UndirectedGraph;
 
 public final class GraphUtility {
 
-    public static <V, E> void splitUnconnected(UndirectedGraph<V, E> source,
+    /**
+     * The outcome of {@link GraphUtility#findSmallerSide}.
+     */
+    public static final class Split<V> {
+
+        private final Set<V> smallerSide;
+
+        private Split(Set<V> smallerSide) {
+            this.smallerSide = smallerSide;
+        }
+
+        /**
+         * Returns {@code true} if both starting vertices are still in the same
+         * component, in which case nothing should be moved.
+         */
+        public boolean isConnected() {
+            return this.smallerSide == null;
+        }
+
+        /**
+         * Returns every vertex of the smaller component. Only valid if not
+         * {@link #isConnected() connected}.
+         */
+        public Set<V> getSmallerSide() {
+            if (this.smallerSide == null) {
+                throw new IllegalStateException("no split happened");
+            }
+            return this.smallerSide;
+        }
+
+    }
+
+    /**
+     * Searches outwards from {@code a} and {@code b} at the same time, one
+     * vertex per side per step. The search stops as soon as one side runs out
+     * of vertices, which is then the complete (and smaller) component, or the
+     * two searches meet, meaning {@code a} and {@code b} are still connected.
+     * The work done is proportional to the smaller component, no matter how
+     * big the other one is.
+     */
+    public static <V> Split<V> findSmallerSide(V a, V b,
+            Function<V, ? extends Iterable<V>> neighbors) {
+        if (a.equals(b)) {
+            return new Split<>(null);
+        }
+        Map<V, Boolean> owner = new HashMap<>();
+        ArrayDeque<V> queueA = new ArrayDeque<>();
+        ArrayDeque<V> queueB = new ArrayDeque<>();
+        owner.put(a, Boolean.TRUE);
+        owner.put(b, Boolean.FALSE);
+        queueA.add(a);
+        queueB.add(b);
+        while (true) {
+            if (queueA.isEmpty()) {
+                return new Split<>(collect(owner, Boolean.TRUE));
+            }
+            if (!step(queueA, Boolean.TRUE, owner, neighbors)) {
+                return new Split<>(null);
+            }
+            if (queueB.isEmpty()) {
+                return new Split<>(collect(owner, Boolean.FALSE));
+            }
+            if (!step(queueB, Boolean.FALSE, owner, neighbors)) {
+                return new Split<>(null);
+            }
+        }
+    }
+
+    /**
+     * Expands one vertex, returning {@code false} if it touched the other
+     * side.
+     */
+    private static <V> boolean step(ArrayDeque<V> queue, Boolean side,
+            Map<V, Boolean> owner, Function<V, ? extends Iterable<V>> neighbors) {
+        V next = queue.poll();
+        for (V neighbor : neighbors.apply(next)) {
+            Boolean seen = owner.putIfAbsent(neighbor, side);
+            if (seen == null) {
+                queue.add(neighbor);
+            } else if (!seen.equals(side)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static <V> Set<V> collect(Map<V, Boolean> owner, Boolean side) {
+        Set<V> result = Collections.newSetFromMap(new HashMap<>());
+        owner.forEach((v, s) -> {
+            if (s.equals(side)) {
+                result.add(v);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Removes {@code edgeToRemove} from {@code source}. If that disconnects
+     * the graph, the smaller of the two components is moved into
+     * {@code second}.
+     * 
+     * @return {@code true} if a component was moved
+     */
+    public static <V, E> boolean splitUnconnected(UndirectedGraph<V, E> source,
             UndirectedGraph<V, E> second, E edgeToRemove) {
         V v1 = source.getEdgeSource(edgeToRemove);
         V v2 = source.getEdgeTarget(edgeToRemove);
         source.removeEdge(v1, v2);
-        Deque<V> verticiesToCheck = new LinkedList<>();
-        verticiesToCheck.addFirst(v2);
-        while (!verticiesToCheck.isEmpty()) {
-            V check = verticiesToCheck.pollLast();
-            Set<E> edges = source.edgesOf(check);
-            if (!edges.isEmpty()) {
-                for (E edge : edges) {
-                    V opposite = Graphs.getOppositeVertex(source, edge, check);
-                    verticiesToCheck.addFirst(opposite);
-                    Graphs.addEdgeWithVertices(second, source, edge);
-                }
-                source.removeAllEdges(edges);
-            }
-            source.removeVertex(check);
+        Split<V> split = findSmallerSide(v1, v2,
+                v -> Graphs.neighborListOf(source, v));
+        if (split.isConnected()) {
+            return false;
+        }
+        for (V vertex : split.getSmallerSide()) {
+            second.addVertex(vertex);
+            for (E edge : source.edgesOf(vertex)) {
+                Graphs.addEdgeWithVertices(second, source, edge);
+            }
         }
+        source.removeAllVertices(split.getSmallerSide());
+        return true;
     }
 
     private GraphUtility() {
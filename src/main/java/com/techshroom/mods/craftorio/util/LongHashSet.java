@@ -0,0 +1,209 @@
+/*
+ * This file is part of Craftorio, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) TechShroom Studios <https://techshoom.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.techshroom.mods.craftorio.util;
+
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+/**
+ * An open-addressing set of {@code long}s, without boxing.
+ */
+public final class LongHashSet {
+
+    private static final int MIN_CAPACITY = 16;
+
+    // 0 marks an empty slot, the element 0 is stored on the side
+    private long[] keys;
+    private int mask;
+    private int size;
+    private boolean hasZero;
+
+    public LongHashSet() {
+        allocate(MIN_CAPACITY);
+    }
+
+    public LongHashSet(LongHashSet copy) {
+        this.keys = copy.keys.clone();
+        this.mask = copy.mask;
+        this.size = copy.size;
+        this.hasZero = copy.hasZero;
+    }
+
+    private void allocate(int capacity) {
+        this.keys = new long[capacity];
+        this.mask = capacity - 1;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    public boolean contains(long key) {
+        if (key == 0) {
+            return this.hasZero;
+        }
+        int pos = LongIntHashMap.mix(key) & this.mask;
+        while (true) {
+            long k = this.keys[pos];
+            if (k == 0) {
+                return false;
+            }
+            if (k == key) {
+                return true;
+            }
+            pos = (pos + 1) & this.mask;
+        }
+    }
+
+    public boolean add(long key) {
+        if (key == 0) {
+            if (this.hasZero) {
+                return false;
+            }
+            this.hasZero = true;
+            this.size++;
+            return true;
+        }
+        int pos = LongIntHashMap.mix(key) & this.mask;
+        while (true) {
+            long k = this.keys[pos];
+            if (k == 0) {
+                break;
+            }
+            if (k == key) {
+                return false;
+            }
+            pos = (pos + 1) & this.mask;
+        }
+        this.keys[pos] = key;
+        this.size++;
+        if (this.size * 4 >= this.keys.length * 3) {
+            rehash(this.keys.length * 2);
+        }
+        return true;
+    }
+
+    public boolean remove(long key) {
+        if (key == 0) {
+            if (!this.hasZero) {
+                return false;
+            }
+            this.hasZero = false;
+            this.size--;
+            return true;
+        }
+        int pos = LongIntHashMap.mix(key) & this.mask;
+        while (true) {
+            long k = this.keys[pos];
+            if (k == 0) {
+                return false;
+            }
+            if (k == key) {
+                break;
+            }
+            pos = (pos + 1) & this.mask;
+        }
+        this.size--;
+        // shift later entries of the probe run back into the gap
+        while (true) {
+            int last = pos;
+            pos = (pos + 1) & this.mask;
+            long k;
+            while (true) {
+                k = this.keys[pos];
+                if (k == 0) {
+                    this.keys[last] = 0;
+                    return true;
+                }
+                int ideal = LongIntHashMap.mix(k) & this.mask;
+                if (last <= pos ? last >= ideal || ideal > pos
+                        : last >= ideal && ideal > pos) {
+                    break;
+                }
+                pos = (pos + 1) & this.mask;
+            }
+            this.keys[last] = k;
+        }
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = this.keys;
+        allocate(capacity);
+        for (long k : oldKeys) {
+            if (k == 0) {
+                continue;
+            }
+            int pos = LongIntHashMap.mix(k) & this.mask;
+            while (this.keys[pos] != 0) {
+                pos = (pos + 1) & this.mask;
+            }
+            this.keys[pos] = k;
+        }
+    }
+
+    public void addAll(LongHashSet other) {
+        other.forEach(this::add);
+    }
+
+    public void forEach(LongConsumer action) {
+        if (this.hasZero) {
+            action.accept(0);
+        }
+        for (long k : this.keys) {
+            if (k != 0) {
+                action.accept(k);
+            }
+        }
+    }
+
+    public long[] toArray() {
+        long[] out = new long[this.size];
+        int i = 0;
+        if (this.hasZero) {
+            out[i++] = 0;
+        }
+        for (long k : this.keys) {
+            if (k != 0) {
+                out[i++] = k;
+            }
+        }
+        return out;
+    }
+
+    public void clear() {
+        if (this.keys.length > MIN_CAPACITY) {
+            allocate(MIN_CAPACITY);
+        } else {
+            Arrays.fill(this.keys, 0);
+        }
+        this.hasZero = false;
+        this.size = 0;
+    }
+
+}
@@ -0,0 +1,236 @@
+/*
+ * This file is part of Craftorio, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) TechShroom Studios <https://techshoom.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.techshroom.mods.craftorio.util;
+
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+/**
+ * An open-addressing map from {@code long} to {@code int}, without boxing.
+ * Lookups of missing keys return the {@link #getMissingValue() missing value}
+ * given at construction.
+ */
+public final class LongIntHashMap {
+
+    private static final int MIN_CAPACITY = 16;
+
+    static int mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private final int missingValue;
+    // 0 marks an empty slot, the key 0 is stored on the side
+    private long[] keys;
+    private int[] values;
+    private int mask;
+    private int size;
+    private boolean hasZero;
+    private int zeroValue;
+
+    public LongIntHashMap(int missingValue) {
+        this.missingValue = missingValue;
+        allocate(MIN_CAPACITY);
+    }
+
+    private void allocate(int capacity) {
+        this.keys = new long[capacity];
+        this.values = new int[capacity];
+        this.mask = capacity - 1;
+    }
+
+    public int getMissingValue() {
+        return this.missingValue;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    private int find(long key) {
+        int pos = mix(key) & this.mask;
+        while (true) {
+            long k = this.keys[pos];
+            if (k == 0) {
+                return -1;
+            }
+            if (k == key) {
+                return pos;
+            }
+            pos = (pos + 1) & this.mask;
+        }
+    }
+
+    public boolean containsKey(long key) {
+        return key == 0 ? this.hasZero : find(key) != -1;
+    }
+
+    public int get(long key) {
+        if (key == 0) {
+            return this.hasZero ? this.zeroValue : this.missingValue;
+        }
+        int pos = find(key);
+        return pos == -1 ? this.missingValue : this.values[pos];
+    }
+
+    /**
+     * Returns the previous value, or the missing value if there was none.
+     */
+    public int put(long key, int value) {
+        if (key == 0) {
+            int prev = this.hasZero ? this.zeroValue : this.missingValue;
+            if (!this.hasZero) {
+                this.hasZero = true;
+                this.size++;
+            }
+            this.zeroValue = value;
+            return prev;
+        }
+        int pos = mix(key) & this.mask;
+        while (true) {
+            long k = this.keys[pos];
+            if (k == 0) {
+                break;
+            }
+            if (k == key) {
+                int prev = this.values[pos];
+                this.values[pos] = value;
+                return prev;
+            }
+            pos = (pos + 1) & this.mask;
+        }
+        this.keys[pos] = key;
+        this.values[pos] = value;
+        this.size++;
+        if (this.size * 4 >= this.keys.length * 3) {
+            rehash(this.keys.length * 2);
+        }
+        return this.missingValue;
+    }
+
+    /**
+     * Returns the removed value, or the missing value if there was none.
+     */
+    public int remove(long key) {
+        if (key == 0) {
+            if (!this.hasZero) {
+                return this.missingValue;
+            }
+            this.hasZero = false;
+            this.size--;
+            return this.zeroValue;
+        }
+        int pos = find(key);
+        if (pos == -1) {
+            return this.missingValue;
+        }
+        int prev = this.values[pos];
+        this.size--;
+        shiftKeys(pos);
+        return prev;
+    }
+
+    /**
+     * Closes the gap at {@code pos} by moving later entries of the same probe
+     * run back, so lookups never need tombstones.
+     */
+    private void shiftKeys(int pos) {
+        while (true) {
+            int last = pos;
+            pos = (pos + 1) & this.mask;
+            long k;
+            while (true) {
+                k = this.keys[pos];
+                if (k == 0) {
+                    this.keys[last] = 0;
+                    return;
+                }
+                int ideal = mix(k) & this.mask;
+                if (last <= pos ? last >= ideal || ideal > pos
+                        : last >= ideal && ideal > pos) {
+                    break;
+                }
+                pos = (pos + 1) & this.mask;
+            }
+            this.keys[last] = k;
+            this.values[last] = this.values[pos];
+        }
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = this.keys;
+        int[] oldValues = this.values;
+        allocate(capacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            long k = oldKeys[i];
+            if (k == 0) {
+                continue;
+            }
+            int pos = mix(k) & this.mask;
+            while (this.keys[pos] != 0) {
+                pos = (pos + 1) & this.mask;
+            }
+            this.keys[pos] = k;
+            this.values[pos] = oldValues[i];
+        }
+    }
+
+    public void putAll(LongIntHashMap other) {
+        if (other.hasZero) {
+            put(0, other.zeroValue);
+        }
+        for (int i = 0; i < other.keys.length; i++) {
+            if (other.keys[i] != 0) {
+                put(other.keys[i], other.values[i]);
+            }
+        }
+    }
+
+    public void forEachKey(LongConsumer action) {
+        if (this.hasZero) {
+            action.accept(0);
+        }
+        for (long k : this.keys) {
+            if (k != 0) {
+                action.accept(k);
+            }
+        }
+    }
+
+    public void clear() {
+        if (this.keys.length > MIN_CAPACITY) {
+            allocate(MIN_CAPACITY);
+        } else {
+            Arrays.fill(this.keys, 0);
+        }
+        this.hasZero = false;
+        this.size = 0;
+    }
+
+}
@@ -0,0 +1,88 @@
+/*
+ * This file is part of Craftorio, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) TechShroom Studios <https://techshoom.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.techshroom.mods.craftorio.network;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import com.techshroom.mods.craftorio.rail.RailChunk;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+public class RailChunkMessageTest {
+
+    private static RailChunk roundTrip(RailChunk rails) {
+        ByteBuf buf = Unpooled.buffer();
+        new RailChunkMessage(0, rails).toBytes(buf);
+        RailChunkMessage read = new RailChunkMessage();
+        read.fromBytes(buf);
+        assertEquals(0, buf.readableBytes());
+        return read.getRails();
+    }
+
+    private static void assertSameRails(RailChunk expected,
+            RailChunk actual) {
+        assertEquals(expected.getChunkX(), actual.getChunkX());
+        assertEquals(expected.getChunkZ(), actual.getChunkZ());
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.getIndex(i), actual.getIndex(i));
+            assertEquals(expected.getLinks(i), actual.getLinks(i));
+            assertEquals(expected.getSegmentId(i), actual.getSegmentId(i));
+        }
+    }
+
+    @Test
+    public void singleSegmentChunk() throws Exception {
+        RailChunk rails = new RailChunk(-3, 7);
+        for (int index = 0; index < 40; index++) {
+            int i = rails.add(index * 1601 & 0xFFFF);
+            rails.setLinks(i, index * 37 & 0xFFF);
+            rails.setSegmentId(i, 12);
+        }
+        assertSameRails(rails, roundTrip(rails));
+    }
+
+    @Test
+    public void manySegmentsStraddleWords() throws Exception {
+        RailChunk rails = new RailChunk(5, -1);
+        for (int index = 0; index < 300; index++) {
+            int i = rails.add(index * 211 & 0xFFFF);
+            rails.setLinks(i, 0xFFF - index);
+            rails.setSegmentId(i,
+                    index % 7 == 0 ? RailChunk.NO_SEGMENT : index % 23);
+        }
+        assertSameRails(rails, roundTrip(rails));
+    }
+
+    @Test
+    public void emptyChunk() throws Exception {
+        assertSameRails(new RailChunk(0, 0),
+                roundTrip(new RailChunk(0, 0)));
+    }
+
+}
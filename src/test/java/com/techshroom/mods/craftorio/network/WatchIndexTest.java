@@ -0,0 +1,70 @@
+/*
+ * This file is part of Craftorio, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) TechShroom Studios <https://techshoom.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.techshroom.mods.craftorio.network;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class WatchIndexTest {
+
+    private final Object overworld = new Object();
+    private final Object nether = new Object();
+    private final WatchIndex<Object, String> index = new WatchIndex<>();
+
+    @Test
+    public void dimensionChangeDropsTheOldWorld() throws Exception {
+        this.index.watch(this.overworld, 1L, "a");
+        this.index.watch(this.overworld, 1L, "b");
+        this.index.watch(this.overworld, 2L, "a");
+
+        // the old world unwatches after the player already moved
+        this.index.unWatch(this.nether, 1L, "a");
+        this.index.watch(this.nether, 1L, "a");
+        this.index.forget("a", this.nether);
+
+        assertEquals(Arrays.asList("b"), this.index.get(this.overworld, 1L));
+        assertTrue(this.index.get(this.overworld, 2L).isEmpty());
+        assertEquals(Arrays.asList("a"), this.index.get(this.nether, 1L));
+        assertEquals(0, this.index.getWatched(this.overworld, "a").length);
+        assertArrayEquals(new long[] { 1L },
+                this.index.getWatched(this.nether, "a"));
+    }
+
+    @Test
+    public void logoutDropsEveryWorld() throws Exception {
+        this.index.watch(this.overworld, 1L, "a");
+        this.index.watch(this.nether, 1L, "a");
+        this.index.forget("a", null);
+
+        assertTrue(this.index.get(this.overworld, 1L).isEmpty());
+        assertTrue(this.index.get(this.nether, 1L).isEmpty());
+    }
+
+}
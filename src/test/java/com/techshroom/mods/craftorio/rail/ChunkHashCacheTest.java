@@ -0,0 +1,75 @@
+/*
+ * This file is part of Craftorio, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) TechShroom Studios <https://techshoom.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.techshroom.mods.craftorio.rail;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import org.junit.Test;
+
+import com.techshroom.mods.craftorio.segment.Segment;
+import com.techshroom.mods.craftorio.segment.SegmentRegistry;
+
+public class ChunkHashCacheTest {
+
+    private final SegmentRegistry registry = new SegmentRegistry("test");
+    private final ChunkHashCache cache = new ChunkHashCache(this.registry);
+
+    private static RailChunk chunk(int segmentId) {
+        RailChunk rails = new RailChunk(0, 0);
+        for (int index = 0; index < 5; index++) {
+            int i = rails.add(64 << 8 | index);
+            rails.setSegmentId(i, segmentId);
+        }
+        return rails;
+    }
+
+    @Test
+    public void mergesAreNoticedWithoutARailChange() throws Exception {
+        Segment loser = this.registry.allocate();
+        Segment winner = this.registry.allocate();
+        RailChunk rails = chunk(loser.getId());
+        long before = this.cache.hash(rails);
+        assertEquals(RailHashes.hashChunk(this.registry, rails), before);
+
+        this.registry.mergeInto(winner, loser);
+        long after = this.cache.hash(rails);
+        assertNotEquals(before, after);
+        assertEquals(RailHashes.hashChunk(this.registry, rails), after);
+    }
+
+    @Test
+    public void reloadedChunksAreHashedAgain() throws Exception {
+        Segment segment = this.registry.allocate();
+        RailChunk rails = chunk(segment.getId());
+        this.cache.hash(rails);
+
+        RailChunk reloaded = chunk(segment.getId());
+        reloaded.setLinks(0, 0b1);
+        assertEquals(RailHashes.hashChunk(this.registry, reloaded),
+                this.cache.hash(reloaded));
+    }
+
+}
@@ -0,0 +1,88 @@
+/*
+ * This file is part of Craftorio, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) TechShroom Studios <https://techshoom.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.techshroom.mods.craftorio.rail;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import com.techshroom.mods.craftorio.util.LongIntHashMap;
+
+import net.minecraft.util.math.BlockPos;
+
+public class RailGraphTest {
+
+    private static final long A = new BlockPos(0, 64, 0).toLong();
+    private static final long B = new BlockPos(1, 64, 0).toLong();
+
+    @Test
+    public void onlyRealChangesAreRecorded() throws Exception {
+        RailGraph graph = new RailGraph();
+        graph.setTrackingChanges(true);
+        graph.add(A);
+        graph.add(B);
+        graph.setSegmentId(A, 3);
+        graph.drainChanges();
+
+        graph.setSegmentId(A, 3);
+        assertNull(graph.drainChanges());
+
+        graph.link(A, B);
+        graph.setSegmentId(B, 3);
+        LongIntHashMap changes = graph.drainChanges();
+        assertEquals(RailGraph.CHANGED_LINKS, changes.get(A));
+        assertEquals(RailGraph.CHANGED_LINKS | RailGraph.CHANGED_SEGMENT,
+                changes.get(B));
+    }
+
+    @Test
+    public void removalReplacesOtherChanges() throws Exception {
+        RailGraph graph = new RailGraph();
+        graph.setTrackingChanges(true);
+        graph.add(A);
+        graph.add(B);
+        graph.link(A, B);
+        graph.drainChanges();
+
+        graph.setSegmentId(B, 1);
+        graph.remove(B);
+        LongIntHashMap changes = graph.drainChanges();
+        assertEquals(RailGraph.CHANGED_REMOVED, changes.get(B));
+        assertEquals(RailGraph.CHANGED_LINKS, changes.get(A));
+    }
+
+    @Test
+    public void loadingChunksIsNotAChange() throws Exception {
+        RailGraph graph = new RailGraph();
+        graph.setTrackingChanges(true);
+        RailChunk chunk = new RailChunk(0, 0);
+        chunk.add(RailChunk.localIndex(BlockPos.fromLong(A)));
+        graph.loadChunk(chunk);
+        graph.unloadChunk(0, 0);
+        assertNull(graph.drainChanges());
+    }
+
+}
@@ -0,0 +1,104 @@
+/*
+ * This file is part of Craftorio, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) TechShroom Studios <https://techshoom.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.techshroom.mods.craftorio.rail;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.techshroom.mods.craftorio.segment.Segment;
+import com.techshroom.mods.craftorio.segment.SegmentRegistry;
+
+public class RailHashesTest {
+
+    private final SegmentRegistry registry = new SegmentRegistry("test");
+
+    private static RailChunk chunk(int chunkX, int chunkZ, int segmentId) {
+        RailChunk rails = new RailChunk(chunkX, chunkZ);
+        for (int index = 0; index < 5; index++) {
+            int i = rails.add(64 << 8 | index);
+            rails.setLinks(i, 0b101);
+            rails.setSegmentId(i, segmentId);
+        }
+        return rails;
+    }
+
+    @Test
+    public void visitingOrderDoesNotMatter() throws Exception {
+        RailChunk a = chunk(0, 0, 1);
+        RailChunk b = chunk(9, -4, 1);
+        RailChunk c = chunk(1, 0, 2);
+        Map<Long, Long> forward = RailHashes.hashRegions(this.registry,
+                Arrays.asList(a, b, c));
+        Map<Long, Long> backward = RailHashes.hashRegions(this.registry,
+                Arrays.asList(c, b, a));
+        assertEquals(forward, backward);
+        assertEquals(2, forward.size());
+        assertEquals(RailHashes.hashRoot(forward),
+                RailHashes.hashRoot(backward));
+    }
+
+    @Test
+    public void changesShowUpInTheirRegionOnly() throws Exception {
+        RailChunk a = chunk(0, 0, 1);
+        RailChunk b = chunk(9, -4, 1);
+        Map<Long, Long> before =
+                RailHashes.hashRegions(this.registry, Arrays.asList(a, b));
+        b.setLinks(2, 0b11);
+        Map<Long, Long> after =
+                RailHashes.hashRegions(this.registry, Arrays.asList(a, b));
+
+        long regionA = RailHashes.regionKey(0, 0);
+        long regionB = RailHashes.regionKey(9, -4);
+        assertEquals(before.get(regionA), after.get(regionA));
+        assertNotEquals(before.get(regionB), after.get(regionB));
+        assertNotEquals(RailHashes.hashRoot(before),
+                RailHashes.hashRoot(after));
+    }
+
+    @Test
+    public void mergedIdsHashLikeTheSurvivor() throws Exception {
+        Segment winner = this.registry.allocate();
+        Segment loser = this.registry.allocate();
+        this.registry.mergeInto(winner, loser);
+        assertEquals(
+                RailHashes.hashChunk(this.registry,
+                        chunk(0, 0, winner.getId())),
+                RailHashes.hashChunk(this.registry,
+                        chunk(0, 0, loser.getId())));
+    }
+
+    @Test
+    public void chunkKeysRoundTrip() throws Exception {
+        long key = RailHashes.chunkKey(-7, 12);
+        assertEquals(-7, RailHashes.chunkX(key));
+        assertEquals(12, RailHashes.chunkZ(key));
+    }
+
+}
@@ -0,0 +1,134 @@
+/*
+ * This file is part of Craftorio, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) TechShroom Studios <https://techshoom.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.techshroom.mods.craftorio.segment;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.techshroom.mods.craftorio.rail.RailGraph;
+
+import net.minecraft.util.math.BlockPos;
+
+public class BridgeIndexTest {
+
+    private static long at(int x, int z) {
+        return new BlockPos(x, 64, z).toLong();
+    }
+
+    /**
+     * A loop around (1, 1) with a tail sticking out east of (2, 0).
+     */
+    private static final long[] LOOP = { at(0, 0), at(1, 0), at(2, 0),
+            at(2, 1), at(2, 2), at(1, 2), at(0, 2), at(0, 1) };
+    private static final long TAIL = at(3, 0);
+
+    private final RailGraph graph = new RailGraph();
+    private final BridgeIndex index = new BridgeIndex(this.graph);
+
+    private void link(long a, long b) {
+        this.graph.link(a, b);
+        this.index.link(a, b, false);
+    }
+
+    private void buildLoop() {
+        for (long pos : LOOP) {
+            this.graph.add(pos);
+            this.index.addRail(pos);
+        }
+        this.graph.add(TAIL);
+        this.index.addRail(TAIL);
+        for (int i = 0; i < LOOP.length; i++) {
+            link(LOOP[i], LOOP[(i + 1) % LOOP.length]);
+        }
+        link(LOOP[2], TAIL);
+    }
+
+    @Test
+    public void closingALoopClearsItsBridges() throws Exception {
+        buildLoop();
+        for (int i = 0; i < LOOP.length; i++) {
+            assertFalse(this.index.isBridge(LOOP[i],
+                    LOOP[(i + 1) % LOOP.length]));
+        }
+        assertTrue(this.index.isBridge(LOOP[2], TAIL));
+    }
+
+    @Test
+    public void openingALoopMakesBridges() throws Exception {
+        buildLoop();
+        this.graph.unlink(LOOP[0], LOOP[1]);
+        this.index.unlink(LOOP[0], LOOP[1]);
+        for (int i = 1; i < LOOP.length; i++) {
+            assertTrue(this.index.isBridge(LOOP[i],
+                    LOOP[(i + 1) % LOOP.length]));
+        }
+
+        link(LOOP[0], LOOP[1]);
+        assertFalse(this.index.isBridge(LOOP[4], LOOP[5]));
+    }
+
+    @Test
+    public void loadingALoopFindsIt() throws Exception {
+        buildLoop();
+        BridgeIndex loaded = new BridgeIndex(this.graph);
+        for (long pos : LOOP) {
+            loaded.addRail(pos);
+        }
+        loaded.addRail(TAIL);
+        assertFalse(loaded.isBridge(LOOP[7], LOOP[0]));
+        assertTrue(loaded.isBridge(LOOP[2], TAIL));
+    }
+
+    @Test
+    public void removingARailOpensItsLoop() throws Exception {
+        buildLoop();
+        this.index.removeRail(LOOP[5]);
+        this.graph.remove(LOOP[5]);
+        assertTrue(this.index.isBridge(LOOP[0], LOOP[1]));
+        assertTrue(this.index.isBridge(LOOP[6], LOOP[7]));
+    }
+
+    @Test
+    public void aShortcutSplitsTheLoopInTwo() throws Exception {
+        buildLoop();
+        long middle = at(1, 1);
+        this.graph.add(middle);
+        this.index.addRail(middle);
+        link(LOOP[1], middle);
+        link(middle, LOOP[5]);
+        assertFalse(this.index.isBridge(LOOP[1], middle));
+
+        // with the west side cut, only the east loop is left
+        this.graph.unlink(LOOP[7], LOOP[0]);
+        this.index.unlink(LOOP[7], LOOP[0]);
+        assertTrue(this.index.isBridge(LOOP[0], LOOP[1]));
+        assertTrue(this.index.isBridge(LOOP[6], LOOP[7]));
+        assertFalse(this.index.isBridge(LOOP[2], LOOP[3]));
+        assertFalse(this.index.isBridge(middle, LOOP[5]));
+    }
+
+}
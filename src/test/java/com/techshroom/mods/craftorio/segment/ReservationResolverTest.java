@@ -0,0 +1,108 @@
+/*
+ * This file is part of Craftorio, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) TechShroom Studios <https://techshoom.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.techshroom.mods.craftorio.segment;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.techshroom.mods.craftorio.signal.BlockingState;
+
+public class ReservationResolverTest {
+
+    private final SegmentRegistry registry = new SegmentRegistry("test");
+    private final Map<Integer, Boolean> outcomes = new HashMap<>();
+    private long arrival;
+
+    private ReservationRequest request(int train, int priority, int length,
+            Segment... path) {
+        ReservationRequest request = new ReservationRequest(train,
+                Arrays.asList(path), priority, length,
+                (r, granted) -> this.outcomes.put(r.getTrain(), granted));
+        request.setArrival(this.arrival++);
+        return request;
+    }
+
+    @Test
+    public void higherPriorityWinsRegardlessOfArrival() throws Exception {
+        Segment junction = this.registry.allocate();
+        Segment a = this.registry.allocate();
+        Segment b = this.registry.allocate();
+        List<ReservationRequest> batch = new ArrayList<>();
+        batch.add(request(1, 0, 4, a, junction));
+        batch.add(request(2, 3, 4, b, junction));
+
+        ReservationResolver.resolve(batch);
+
+        assertFalse(this.outcomes.get(1));
+        assertTrue(this.outcomes.get(2));
+        assertEquals(2, junction.getReservation());
+        assertEquals(2, b.getReservation());
+        // the loser did not keep anything
+        assertEquals(Segment.NO_TRAIN, a.getReservation());
+        assertEquals(BlockingState.OPEN, a.getState());
+    }
+
+    @Test
+    public void tiesGoByLengthThenArrival() throws Exception {
+        Segment junction = this.registry.allocate();
+        List<ReservationRequest> batch = new ArrayList<>();
+        batch.add(request(1, 0, 2, junction));
+        batch.add(request(2, 0, 6, junction));
+        batch.add(request(3, 0, 6, junction));
+
+        ReservationResolver.resolve(batch);
+
+        assertEquals(2, junction.getReservation());
+        assertFalse(this.outcomes.get(1));
+        assertTrue(this.outcomes.get(2));
+        assertFalse(this.outcomes.get(3));
+    }
+
+    @Test
+    public void disjointPathsAreAllGranted() throws Exception {
+        Segment a = this.registry.allocate();
+        Segment b = this.registry.allocate();
+        List<ReservationRequest> batch = new ArrayList<>();
+        batch.add(request(1, 0, 1, a));
+        batch.add(request(2, 0, 1, b));
+
+        ReservationResolver.resolve(batch);
+
+        assertTrue(this.outcomes.get(1));
+        assertTrue(this.outcomes.get(2));
+        assertEquals(BlockingState.EXPECTING, a.getState());
+        assertEquals(BlockingState.EXPECTING, b.getState());
+    }
+
+}
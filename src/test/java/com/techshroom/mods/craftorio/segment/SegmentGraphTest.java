@@ -0,0 +1,87 @@
+/*
+ * This file is part of Craftorio, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) TechShroom Studios <https://techshoom.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.techshroom.mods.craftorio.segment;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.techshroom.mods.craftorio.util.LongHashSet;
+
+import net.minecraft.util.math.BlockPos;
+
+public class SegmentGraphTest {
+
+    @Test
+    public void mergeMovesEdges() throws Exception {
+        SegmentRegistry registry = new SegmentRegistry("test");
+        SegmentGraph graph = registry.getSegmentGraph();
+        Segment a = registry.allocate();
+        Segment b = registry.allocate();
+        Segment c = registry.allocate();
+        graph.addEdge(100, 1, a.getId(), 2, b.getId());
+        graph.addEdge(200, 3, c.getId(), 4, b.getId());
+
+        Segment winner = registry.union(a, c);
+        Segment loser = winner == a ? c : a;
+        assertEquals(2, graph.getOutgoing(winner.getId()).size());
+        assertTrue(graph.getOutgoing(loser.getId()).isEmpty());
+        assertEquals(Arrays.asList(b.getId()),
+                graph.getSuccessors(winner.getId()));
+    }
+
+    @Test
+    public void splitMovesEdgesOfMovedRails() throws Exception {
+        SegmentGraph graph = new SegmentGraph();
+        graph.addEdge(100, 1, 0, 2, 1);
+        graph.addEdge(200, 3, 1, 4, 0);
+        graph.addEdge(300, 5, 2, 6, 1);
+
+        LongHashSet moved = new LongHashSet();
+        moved.add(2);
+        moved.add(3);
+        graph.split(1, 7, moved);
+        assertEquals(7, graph.getEdge(BlockPos.fromLong(100)).getTo());
+        assertEquals(7, graph.getEdges().stream()
+                .filter(e -> e.getSignal() == 200).findAny().get().getFrom());
+        assertEquals(1, graph.getIncoming(1).size());
+        assertEquals(1, graph.getIncoming(7).size());
+    }
+
+    @Test
+    public void readdingReplacesEdge() throws Exception {
+        SegmentGraph graph = new SegmentGraph();
+        graph.addEdge(100, 1, 0, 2, 1);
+        graph.addEdge(100, 1, 0, 2, 3);
+        assertEquals(1, graph.getEdges().size());
+        assertTrue(graph.getIncoming(1).isEmpty());
+        graph.removeEdge(100);
+        assertTrue(graph.getOutgoing(0).isEmpty());
+    }
+
+}
@@ -0,0 +1,57 @@
+/*
+ * This file is part of Craftorio, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) TechShroom Studios <https://techshoom.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.techshroom.mods.craftorio.segment;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class SegmentPaletteTest {
+
+    @Test
+    public void colorsSurviveTheCacheStartingOver() throws Exception {
+        int[] first = new int[200];
+        for (int id = 0; id < first.length; id++) {
+            first[id] = SegmentPalette.getColor(id, SegmentPalette.BASE);
+        }
+        // enough ids to fill the cache and clear it
+        for (int id = 1000; id < 20000; id++) {
+            SegmentPalette.getColor(id, SegmentPalette.LIGHTER);
+        }
+        for (int id = 0; id < first.length; id++) {
+            assertEquals(first[id],
+                    SegmentPalette.getColor(id, SegmentPalette.BASE));
+        }
+    }
+
+    @Test
+    public void colorsAreOpaque() throws Exception {
+        for (int shade : new int[] { SegmentPalette.BASE,
+                SegmentPalette.LIGHTER, SegmentPalette.CONNECTOR }) {
+            assertEquals(0xFF, SegmentPalette.getColor(42, shade) >>> 24);
+        }
+    }
+
+}
@@ -0,0 +1,146 @@
+/*
+ * This file is part of Craftorio, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) TechShroom Studios <https://techshoom.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.techshroom.mods.craftorio.segment;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+import net.minecraft.nbt.NBTTagCompound;
+
+public class SegmentRegistryTest {
+
+    @Test
+    public void freedIdsAreReused() throws Exception {
+        SegmentRegistry registry = new SegmentRegistry("test");
+        Segment a = registry.allocate();
+        Segment b = registry.allocate();
+        assertEquals(0, a.getId());
+        assertEquals(1, b.getId());
+        registry.retain(0);
+        registry.release(0);
+        assertNull(registry.get(0));
+        assertEquals(0, registry.allocate().getId());
+        assertEquals(2, registry.allocate().getId());
+    }
+
+    @Test
+    public void restoreSkipsOverGap() throws Exception {
+        SegmentRegistry registry = new SegmentRegistry("test");
+        assertEquals(3, registry.restore(3).getId());
+        assertEquals(0, registry.allocate().getId());
+        assertEquals(1, registry.allocate().getId());
+        assertEquals(2, registry.allocate().getId());
+        assertEquals(4, registry.allocate().getId());
+    }
+
+    @Test
+    public void everyRailOfAnUnknownIdIsCounted() throws Exception {
+        SegmentRegistry registry = new SegmentRegistry("test");
+        for (int i = 0; i < 3; i++) {
+            assertEquals(3, registry.adopt(3).getId());
+        }
+        assertEquals(3, registry.get(3).getRailCount());
+
+        // breaking one rail keeps the segment of the other two alive
+        registry.release(3);
+        assertNotNull(registry.get(3));
+        assertEquals(2, registry.get(3).getRailCount());
+
+        // the skipped ids may be stored by rails in unloaded chunks
+        SegmentRegistry loaded = new SegmentRegistry("test");
+        loaded.readFromNBT(registry.writeToNBT(new NBTTagCompound()));
+        assertEquals(2, loaded.get(3).getRailCount());
+        assertEquals(4, loaded.allocate().getId());
+        assertEquals(4, registry.allocate().getId());
+    }
+
+    @Test
+    public void saveCompactsTrailingIds() throws Exception {
+        SegmentRegistry registry = new SegmentRegistry("test");
+        Segment a = registry.allocate();
+        for (int i = 0; i < 5; i++) {
+            registry.retain(a.getId());
+        }
+        registry.allocate();
+        registry.allocate();
+
+        SegmentRegistry loaded = new SegmentRegistry("test");
+        loaded.readFromNBT(registry.writeToNBT(new NBTTagCompound()));
+        assertNotNull(loaded.get(0));
+        assertEquals(5, loaded.get(0).getRailCount());
+        assertEquals(1, loaded.allocate().getId());
+        assertEquals(2, loaded.allocate().getId());
+    }
+
+    @Test
+    public void unionResolvesLazily() throws Exception {
+        SegmentRegistry registry = new SegmentRegistry("test");
+        Segment small = registry.allocate();
+        Segment big = registry.allocate();
+        registry.retain(small.getId());
+        registry.retain(big.getId());
+        registry.retain(big.getId());
+
+        assertSame(big, registry.union(small, big));
+        assertSame(big, registry.get(small.getId()));
+        assertEquals(3, big.getRailCount());
+
+        // the last rail storing the alias moves over, the alias is freed
+        registry.retain(big.getId());
+        registry.release(small.getId());
+        assertNull(registry.get(small.getId()));
+        assertEquals(3, big.getRailCount());
+        assertEquals(small.getId(), registry.allocate().getId());
+    }
+
+    @Test
+    public void aliasChainsSurviveSave() throws Exception {
+        SegmentRegistry registry = new SegmentRegistry("test");
+        Segment a = registry.allocate();
+        Segment b = registry.allocate();
+        Segment c = registry.allocate();
+        registry.retain(a.getId());
+        registry.retain(b.getId());
+        registry.retain(b.getId());
+        registry.retain(c.getId());
+        registry.retain(c.getId());
+        registry.retain(c.getId());
+        Segment ab = registry.union(a, b);
+        Segment abc = registry.union(ab, c);
+
+        SegmentRegistry loaded = new SegmentRegistry("test");
+        loaded.readFromNBT(registry.writeToNBT(new NBTTagCompound()));
+        Segment root = loaded.get(abc.getId());
+        assertNotNull(root);
+        assertSame(root, loaded.get(a.getId()));
+        assertSame(root, loaded.get(b.getId()));
+        assertEquals(6, root.getRailCount());
+    }
+
+}
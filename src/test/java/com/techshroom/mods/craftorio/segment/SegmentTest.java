@@ -0,0 +1,223 @@
+/*
+ * This file is part of Craftorio, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) TechShroom Studios <https://techshoom.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.techshroom.mods.craftorio.segment;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.techshroom.mods.craftorio.signal.BlockingState;
+import com.techshroom.mods.craftorio.util.LongHashSet;
+
+public class SegmentTest {
+
+    @Test
+    public void waitersAreGrantedInPriorityOrder() throws Exception {
+        Segment segment = new SegmentRegistry("test").allocate();
+        List<Integer> granted = new ArrayList<>();
+        ReservationListener listener = (s, train) -> granted.add(train);
+
+        assertTrue(segment.reserveOrWait(1, 0, listener));
+        assertFalse(segment.reserveOrWait(2, 0, listener));
+        assertFalse(segment.reserveOrWait(3, 5, listener));
+        assertFalse(segment.reserveOrWait(4, 0, listener));
+        assertTrue(granted.isEmpty());
+
+        segment.onEnter(1);
+        segment.onLeave(1);
+        assertEquals(Arrays.asList(3), granted);
+        assertEquals(3, segment.getReservation());
+        assertEquals(BlockingState.EXPECTING, segment.getState());
+
+        segment.release(3);
+        assertEquals(Arrays.asList(3, 2), granted);
+        assertTrue(segment.cancelWait(4));
+        segment.release(2);
+        assertEquals(Segment.NO_TRAIN, segment.getReservation());
+        assertEquals(BlockingState.OPEN, segment.getState());
+    }
+
+    @Test
+    public void transitionHoldsWaiters() throws Exception {
+        Segment segment = new SegmentRegistry("test").allocate();
+        List<Integer> granted = new ArrayList<>();
+        segment.beginTransition();
+        assertFalse(segment.reserveOrWait(1, 0, (s, t) -> granted.add(t)));
+        segment.endTransition();
+        assertEquals(Arrays.asList(1), granted);
+    }
+
+    @Test
+    public void pathIsReservedWhollyOrNotAtAll() throws Exception {
+        SegmentRegistry registry = new SegmentRegistry("test");
+        Segment a = registry.allocate();
+        Segment b = registry.allocate();
+        Segment c = registry.allocate();
+        assertTrue(b.attemptReserve(2));
+
+        assertFalse(Segment.attemptReserveAll(Arrays.asList(a, b, c), 1));
+        assertEquals(Segment.NO_TRAIN, a.getReservation());
+        assertEquals(BlockingState.OPEN, c.getState());
+
+        b.release(2);
+        assertTrue(Segment.attemptReserveAll(Arrays.asList(c, a, b), 1));
+        assertEquals(1, a.getReservation());
+        assertEquals(BlockingState.EXPECTING, b.getState());
+        Segment.releaseAll(Arrays.asList(a, b, c), 1);
+        assertEquals(BlockingState.OPEN, c.getState());
+    }
+
+    @Test
+    public void mergedAwaySegmentsForwardReservations() throws Exception {
+        SegmentRegistry registry = new SegmentRegistry("test");
+        Segment a = registry.allocate();
+        Segment b = registry.allocate();
+        registry.retain(a.getId());
+        registry.retain(a.getId());
+        registry.retain(b.getId());
+        assertTrue(a.attemptReserve(1));
+        assertTrue(b.attemptReserve(2));
+
+        // train 2 is dropped, the merged segment stays with train 1
+        Segment merged = registry.union(a, b);
+        assertSame(a, merged);
+        assertEquals(1, b.getReservation());
+        assertFalse(b.attemptReserve(2));
+
+        b.release(1);
+        assertEquals(BlockingState.OPEN, a.getState());
+        assertTrue(Segment.attemptReserveAll(Arrays.asList(b), 3));
+        assertEquals(3, a.getReservation());
+        Segment.releaseAll(Arrays.asList(b), 3);
+        assertEquals(Segment.NO_TRAIN, a.getReservation());
+    }
+
+    @Test
+    public void onlyOneThreadWinsTheReservation() throws Exception {
+        Segment segment = new SegmentRegistry("test").allocate();
+        AtomicInteger winners = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            int train = i;
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (segment.attemptReserve(train)) {
+                    winners.incrementAndGet();
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(1, winners.get());
+        assertEquals(BlockingState.EXPECTING, segment.getState());
+    }
+
+    @Test
+    public void cartsCloseAndOpenSegmentsTheyCross() throws Exception {
+        SegmentRegistry registry = new SegmentRegistry("test");
+        SegmentOccupancy occupancy = registry.getOccupancy();
+        Segment a = registry.allocate();
+        Segment b = registry.allocate();
+
+        occupancy.moveTo(1, a);
+        occupancy.moveTo(2, a);
+        occupancy.moveTo(1, a);
+        assertEquals(2, a.getOccupantCount());
+        assertEquals(BlockingState.CLOSED, a.getState());
+
+        occupancy.moveTo(1, b);
+        assertEquals(BlockingState.CLOSED, a.getState());
+        assertEquals(BlockingState.CLOSED, b.getState());
+
+        occupancy.remove(2);
+        assertEquals(BlockingState.OPEN, a.getState());
+        assertEquals(b, occupancy.getSegmentOf(1));
+    }
+
+    @Test
+    public void lastCartOutClearsTheReservationItCameInUnder()
+            throws Exception {
+        SegmentRegistry registry = new SegmentRegistry("test");
+        SegmentOccupancy occupancy = registry.getOccupancy();
+        Segment segment = registry.allocate();
+        assertTrue(segment.attemptReserve(7));
+
+        occupancy.moveTo(3, segment);
+        assertEquals(BlockingState.CLOSED, segment.getState());
+        occupancy.remove(3);
+        assertEquals(Segment.NO_TRAIN, segment.getReservation());
+        assertEquals(BlockingState.OPEN, segment.getState());
+    }
+
+    @Test
+    public void cartsFollowTheirRailsIntoSplitSegments() throws Exception {
+        SegmentRegistry registry = new SegmentRegistry("test");
+        SegmentOccupancy occupancy = registry.getOccupancy();
+        Segment a = registry.allocate();
+        occupancy.moveTo(1, 10L, a);
+        occupancy.moveTo(2, 20L, a);
+
+        Segment b = registry.allocate();
+        LongHashSet moved = new LongHashSet();
+        moved.add(20L);
+        a.splitInto(b, moved);
+        assertEquals(1, a.getOccupantCount());
+        assertEquals(1, b.getOccupantCount());
+        assertEquals(BlockingState.CLOSED, b.getState());
+        assertEquals(b, occupancy.getSegmentOf(2));
+    }
+
+    @Test
+    public void leavingKeepsAnotherTrainsReservation() throws Exception {
+        Segment segment = new SegmentRegistry("test").allocate();
+        segment.onEnter(1);
+        assertFalse(segment.attemptReserve(2));
+        segment.onLeave(1);
+        assertTrue(segment.attemptReserve(2));
+        segment.onEnter(3);
+        segment.onLeave(3);
+        assertEquals(2, segment.getReservation());
+        assertEquals(BlockingState.EXPECTING, segment.getState());
+    }
+
+}
@@ -0,0 +1,107 @@
+/*
+ * This file is part of Craftorio, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) TechShroom Studios <https://techshoom.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.techshroom.mods.craftorio.segment;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import org.junit.Test;
+
+public class WaitForGraphTest {
+
+    private static final ReservationListener IGNORE = (s, train) -> {
+    };
+
+    private final SegmentRegistry registry = new SegmentRegistry("test");
+    private final WaitForGraph graph = this.registry.getWaitForGraph();
+
+    @Test
+    public void crossedWaitsAreReported() throws Exception {
+        Segment a = this.registry.allocate();
+        Segment b = this.registry.allocate();
+        assertTrue(a.attemptReserve(1));
+        assertTrue(b.attemptReserve(2));
+
+        assertFalse(a.reserveOrWait(2, 0, IGNORE));
+        assertEquals(0, this.graph.getDeadlocksFound());
+        assertFalse(b.reserveOrWait(1, 0, IGNORE));
+        assertEquals(1, this.graph.getDeadlocksFound());
+
+        assertEquals(new HashSet<>(Arrays.asList(a, b)),
+                new HashSet<>(this.graph.check(a)));
+    }
+
+    @Test
+    public void standingCycleIsReportedOnce() throws Exception {
+        Segment a = this.registry.allocate();
+        Segment b = this.registry.allocate();
+        assertTrue(a.attemptReserve(1));
+        assertTrue(b.attemptReserve(2));
+        assertFalse(a.reserveOrWait(2, 0, IGNORE));
+        assertFalse(b.reserveOrWait(1, 0, IGNORE));
+
+        assertFalse(this.graph.check(a).isEmpty());
+        assertFalse(this.graph.check(b).isEmpty());
+        assertEquals(1, this.graph.getDeadlocksFound());
+
+        // broken up and formed again
+        assertTrue(b.cancelWait(1));
+        assertFalse(b.reserveOrWait(1, 0, IGNORE));
+        assertEquals(2, this.graph.getDeadlocksFound());
+    }
+
+    @Test
+    public void chainWithoutCycleIsNotReported() throws Exception {
+        Segment a = this.registry.allocate();
+        Segment b = this.registry.allocate();
+        Segment c = this.registry.allocate();
+        assertTrue(a.attemptReserve(1));
+        assertTrue(b.attemptReserve(2));
+        assertTrue(c.attemptReserve(3));
+
+        assertFalse(b.reserveOrWait(1, 0, IGNORE));
+        assertFalse(c.reserveOrWait(2, 0, IGNORE));
+        assertEquals(0, this.graph.getDeadlocksFound());
+        assertTrue(this.graph.check(a).isEmpty());
+    }
+
+    @Test
+    public void grantedTrainsStopWaiting() throws Exception {
+        Segment a = this.registry.allocate();
+        assertTrue(a.attemptReserve(1));
+        assertFalse(a.reserveOrWait(2, 0, IGNORE));
+        assertEquals(Arrays.asList(a), this.graph.getWaits(2));
+
+        a.release(1);
+        assertEquals(2, a.getReservation());
+        assertTrue(this.graph.getWaits(2).isEmpty());
+        assertEquals(0, this.graph.getWaitingTrainCount());
+    }
+
+}
@@ -0,0 +1,77 @@
+/*
+ * This file is part of Craftorio, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) TechShroom Studios <https://techshoom.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.techshroom.mods.craftorio.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.techshroom.mods.craftorio.util.GraphUtility.Split;
+
+public class GraphUtilityTest {
+
+    private final Map<Integer, List<Integer>> edges = new HashMap<>();
+
+    private void link(int a, int b) {
+        this.edges.computeIfAbsent(a, k -> new ArrayList<>()).add(b);
+        this.edges.computeIfAbsent(b, k -> new ArrayList<>()).add(a);
+    }
+
+    private Split<Integer> split(int a, int b) {
+        return GraphUtility.findSmallerSide(a, b,
+                v -> this.edges.getOrDefault(v, new ArrayList<>()));
+    }
+
+    @Test
+    public void findsSmallerSideOfLine() throws Exception {
+        // 0-1-2 | 3-4
+        link(0, 1);
+        link(1, 2);
+        link(3, 4);
+        Split<Integer> split = split(2, 3);
+        assertFalse(split.isConnected());
+        assertEquals(new HashSet<>(Arrays.asList(3, 4)),
+                split.getSmallerSide());
+    }
+
+    @Test
+    public void loopIsConnected() throws Exception {
+        link(0, 1);
+        link(1, 2);
+        link(2, 3);
+        link(3, 0);
+        assertTrue(split(0, 3).isConnected());
+    }
+
+}
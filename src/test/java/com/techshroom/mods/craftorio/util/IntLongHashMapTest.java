@@ -0,0 +1,62 @@
+/*
+ * This file is part of Craftorio, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) TechShroom Studios <https://techshoom.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.techshroom.mods.craftorio.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class IntLongHashMapTest {
+
+    @Test
+    public void zeroKeyIsStored() throws Exception {
+        IntLongHashMap map = new IntLongHashMap(-1);
+        assertEquals(-1, map.get(0));
+        map.put(0, 5L << 40);
+        assertTrue(map.containsKey(0));
+        assertEquals(5L << 40, map.get(0));
+        assertEquals(5L << 40, map.remove(0));
+        assertFalse(map.containsKey(0));
+        assertEquals(0, map.size());
+    }
+
+    @Test
+    public void removeKeepsProbeRuns() throws Exception {
+        IntLongHashMap map = new IntLongHashMap(-1);
+        for (int i = 1; i <= 1000; i++) {
+            map.put(i * 7, -i);
+        }
+        for (int i = 2; i <= 1000; i += 2) {
+            assertEquals(-i, map.remove(i * 7));
+        }
+        assertEquals(500, map.size());
+        for (int i = 1; i <= 1000; i++) {
+            assertEquals(i % 2 == 0 ? -1 : -i, map.get(i * 7));
+        }
+    }
+
+}